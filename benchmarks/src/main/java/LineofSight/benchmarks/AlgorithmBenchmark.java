@@ -0,0 +1,104 @@
+package LineofSight.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import LineofSight.Algorithm;
+import LineofSight.Line;
+import LineofSight.PVector;
+import LineofSight.PolygonBuffer;
+import LineofSight.RayDirections;
+import LineofSight.SegmentStore;
+
+/**
+ * Scan line creation and the brute force intersection of the scan lines with the scene. The List based
+ * getIntersectionPoints is the original reference, the buffer based one is the same algorithm on the segment store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlgorithmBenchmark {
+
+	@Param({ "100", "500", "1000", "2000" })
+	int scanLineCount;
+
+	@Param({ "0", "1000", "4000" })
+	int roomIterations;
+
+	@Param({ "0", "150" })
+	int lineCount;
+
+	@Param({ "true", "false" })
+	boolean limited;
+
+	Algorithm algorithm = new Algorithm();
+
+	Viewers viewers;
+
+	SegmentStore segments;
+	List<Line> sceneLines;
+
+	/**
+	 * Scan lines of each viewer, so that the intersection benchmarks don't include their creation
+	 */
+	List<List<Line>> scanLines;
+
+	RayDirections directions;
+	PolygonBuffer points = new PolygonBuffer();
+
+	@Setup
+	public void setUp() {
+
+		segments = BenchmarkScene.generate(lineCount, roomIterations);
+
+		sceneLines = new ArrayList<>();
+		for (int i = 0; i < segments.size(); i++) {
+			sceneLines.add(segments.getLine(i));
+		}
+
+		viewers = new Viewers(BenchmarkScene.SEED);
+
+		scanLines = new ArrayList<>();
+		for (int i = 0; i < Viewers.COUNT; i++) {
+			scanLines.add(algorithm.createScanLines(viewers.x[i], viewers.y[i], scanLineCount, BenchmarkScene.SCAN_LINE_LENGTH));
+		}
+
+		directions = new RayDirections(scanLineCount);
+	}
+
+	@Benchmark
+	public List<Line> createScanLines() {
+		int i = viewers.next();
+		return algorithm.createScanLines(viewers.x[i], viewers.y[i], scanLineCount, BenchmarkScene.SCAN_LINE_LENGTH);
+	}
+
+	@Benchmark
+	public List<PVector> getIntersectionPoints() {
+		int i = viewers.next();
+		return algorithm.getIntersectionPoints(scanLines.get(i), sceneLines, limited, BenchmarkScene.SCAN_LINE_LENGTH);
+	}
+
+	@Benchmark
+	public PolygonBuffer getIntersectionPointsSegmentStore() {
+		int i = viewers.next();
+		algorithm.getIntersectionPoints(viewers.x[i], viewers.y[i], directions, BenchmarkScene.SCAN_LINE_LENGTH, limited, segments, points);
+		return points;
+	}
+
+}
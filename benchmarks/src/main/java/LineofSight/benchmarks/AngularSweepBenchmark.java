@@ -0,0 +1,91 @@
+package LineofSight.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import LineofSight.AngularSweep;
+import LineofSight.PolygonBuffer;
+import LineofSight.SegmentStore;
+
+/**
+ * Visibility polygon of the angular sweep. The sweep doesn't cast scan lines, so it isn't crossed with the spatial
+ * indices and the scan line count of the {@link VisibilityEngineBenchmark}. It takes all segments of the scene and
+ * clips them to the scan line circle itself.
+ *
+ * The pieces, events and the active list are reused, so with -prof gc the sweep should not allocate anything per
+ * operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AngularSweepBenchmark {
+
+	@Param({ "100", "4000" })
+	int roomIterations;
+
+	@Param({ "0", "150" })
+	int lineCount;
+
+	@Param({ "true", "false" })
+	boolean limited;
+
+	Viewers viewers;
+
+	AngularSweep sweep;
+
+	PolygonBuffer points = new PolygonBuffer();
+
+	/**
+	 * Position of the moving viewer on its path
+	 */
+	int step = 0;
+
+	@Setup
+	public void setUp() {
+
+		SegmentStore segments = BenchmarkScene.generate(lineCount, roomIterations);
+
+		sweep = new AngularSweep(segments, BenchmarkScene.CELL_SIZE);
+
+		viewers = new Viewers(BenchmarkScene.SEED);
+	}
+
+	@Benchmark
+	public PolygonBuffer getVisibilityPolygon() {
+		int i = viewers.next();
+		sweep.getVisibilityPolygon(viewers.x[i], viewers.y[i], BenchmarkScene.SCAN_LINE_LENGTH, limited, points);
+		return points;
+	}
+
+	/**
+	 * Viewer which moves continuously in small steps along an ellipse around the center, same path as in the
+	 * {@link VisibilityEngineBenchmark}.
+	 */
+	@Benchmark
+	public PolygonBuffer getVisibilityPolygonMoving() {
+
+		double angle = step++ * 0.005;
+
+		double x = BenchmarkScene.WIDTH / 2 + BenchmarkScene.WIDTH / 3 * Math.cos(angle);
+		double y = BenchmarkScene.HEIGHT / 2 + BenchmarkScene.HEIGHT / 3 * Math.sin(angle);
+
+		sweep.getVisibilityPolygon(x, y, BenchmarkScene.SCAN_LINE_LENGTH, limited, points);
+
+		return points;
+	}
+
+}
@@ -0,0 +1,31 @@
+package LineofSight.benchmarks;
+
+import LineofSight.LevelGenerator;
+import LineofSight.SegmentStore;
+
+/**
+ * Scene parameters shared by the benchmarks, same as the default settings of the application.
+ */
+class BenchmarkScene {
+
+	static final long SEED = 12345;
+
+	static final double WIDTH = 980;
+	static final double HEIGHT = 720;
+
+	static final double CELL_SIZE = WIDTH / 60;
+
+	static final double SCAN_LINE_LENGTH = 200;
+
+	/**
+	 * Generate the level with the fixed seed
+	 */
+	static SegmentStore generate(int lineCount, int roomIterations) {
+
+		LevelGenerator levelGenerator = new LevelGenerator(WIDTH, HEIGHT, CELL_SIZE, SEED);
+		levelGenerator.generate(lineCount, roomIterations);
+
+		return levelGenerator.getSegments();
+	}
+
+}
@@ -0,0 +1,45 @@
+package LineofSight.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import LineofSight.LevelGenerator;
+import LineofSight.SegmentStore;
+
+/**
+ * Level generation. Every invocation creates a generator with the same seed, so each one generates the same level.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LevelGeneratorBenchmark {
+
+	@Param({ "0", "1000", "2000", "4000" })
+	int roomIterations;
+
+	@Param({ "0", "50", "150" })
+	int lineCount;
+
+	@Benchmark
+	public SegmentStore generate() {
+
+		LevelGenerator levelGenerator = new LevelGenerator(BenchmarkScene.WIDTH, BenchmarkScene.HEIGHT, BenchmarkScene.CELL_SIZE, BenchmarkScene.SEED);
+		levelGenerator.generate(lineCount, roomIterations);
+
+		return levelGenerator.getSegments();
+	}
+
+}
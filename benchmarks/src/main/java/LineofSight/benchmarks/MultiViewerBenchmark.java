@@ -0,0 +1,93 @@
+package LineofSight.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import LineofSight.ParallelRayCaster;
+import LineofSight.PolygonBuffer;
+import LineofSight.RayDirections;
+import LineofSight.SegmentIndex;
+import LineofSight.SegmentStore;
+import LineofSight.SpatialIndexType;
+
+/**
+ * Visibility polygons of many viewers in one batch, e. g. all agents of a simulation tick, on all processors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiViewerBenchmark {
+
+	@Param({ "1000", "5000" })
+	int viewerCount;
+
+	@Param({ "50", "100", "1000" })
+	int scanLineCount;
+
+	@Param({ "4000" })
+	int roomIterations;
+
+	@Param({ "GRID" })
+	SpatialIndexType index;
+
+	double[] viewerX;
+	double[] viewerY;
+
+	SegmentIndex segmentIndex;
+	RayDirections directions;
+
+	ParallelRayCaster rayCaster;
+
+	PolygonBuffer[] polygons;
+
+	@Setup
+	public void setUp() {
+
+		SegmentStore segments = BenchmarkScene.generate(0, roomIterations);
+
+		segmentIndex = index.createIndex(segments, BenchmarkScene.CELL_SIZE);
+		directions = new RayDirections(scanLineCount);
+
+		rayCaster = new ParallelRayCaster(Runtime.getRuntime().availableProcessors(), 64);
+
+		Random rnd = new Random(BenchmarkScene.SEED);
+
+		viewerX = new double[viewerCount];
+		viewerY = new double[viewerCount];
+
+		for (int i = 0; i < viewerCount; i++) {
+			viewerX[i] = rnd.nextDouble() * BenchmarkScene.WIDTH;
+			viewerY[i] = rnd.nextDouble() * BenchmarkScene.HEIGHT;
+		}
+
+		polygons = new PolygonBuffer[viewerCount];
+	}
+
+	@TearDown
+	public void tearDown() {
+		rayCaster.shutdown();
+	}
+
+	@Benchmark
+	public PolygonBuffer[] getVisibilityPolygons() {
+		rayCaster.getVisibilityPolygons(viewerX, viewerY, viewerCount, directions, BenchmarkScene.SCAN_LINE_LENGTH, true, segmentIndex, polygons);
+		return polygons;
+	}
+
+}
@@ -0,0 +1,81 @@
+package LineofSight.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import LineofSight.Algorithm;
+import LineofSight.PolygonBuffer;
+import LineofSight.RayDirections;
+import LineofSight.SegmentIndex;
+import LineofSight.SegmentStore;
+import LineofSight.VectorSupport;
+
+/**
+ * The brute force intersection with the scalar segment store and with the Vector API kernel. Without the incubator
+ * module the vector index falls back to the segment store, so check the available flag of the setup output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+public class SegmentKernelBenchmark {
+
+	@Param({ "1000" })
+	int scanLineCount;
+
+	@Param({ "20", "200", "1000", "4000" })
+	int roomIterations;
+
+	@Param({ "0", "150" })
+	int lineCount;
+
+	Algorithm algorithm = new Algorithm();
+
+	Viewers viewers;
+
+	SegmentStore segments;
+	SegmentIndex vectorIndex;
+
+	RayDirections directions;
+	PolygonBuffer points = new PolygonBuffer();
+
+	@Setup
+	public void setUp() {
+
+		segments = BenchmarkScene.generate(lineCount, roomIterations);
+		vectorIndex = VectorSupport.createIndex(segments);
+
+		System.out.println("segments: " + segments.size() + ", vector kernel available: " + VectorSupport.isAvailable());
+
+		viewers = new Viewers(BenchmarkScene.SEED);
+		directions = new RayDirections(scanLineCount);
+	}
+
+	@Benchmark
+	public PolygonBuffer scalar() {
+		int i = viewers.next();
+		algorithm.getIntersectionPoints(viewers.x[i], viewers.y[i], directions, BenchmarkScene.SCAN_LINE_LENGTH, true, segments, points);
+		return points;
+	}
+
+	@Benchmark
+	public PolygonBuffer vector() {
+		int i = viewers.next();
+		algorithm.getIntersectionPoints(viewers.x[i], viewers.y[i], directions, BenchmarkScene.SCAN_LINE_LENGTH, true, vectorIndex, points);
+		return points;
+	}
+
+}
@@ -0,0 +1,36 @@
+package LineofSight.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Fixed sequence of random viewer positions on the canvas. The benchmarks cycle through them, so the results don't
+ * depend on a single, possibly lucky, position.
+ */
+class Viewers {
+
+	static final int COUNT = 64;
+
+	final double[] x = new double[COUNT];
+	final double[] y = new double[COUNT];
+
+	int current = 0;
+
+	Viewers(long seed) {
+
+		Random rnd = new Random(seed);
+
+		for (int i = 0; i < COUNT; i++) {
+			x[i] = rnd.nextDouble() * BenchmarkScene.WIDTH;
+			y[i] = rnd.nextDouble() * BenchmarkScene.HEIGHT;
+		}
+	}
+
+	/**
+	 * Advance to the next viewer and return its index
+	 */
+	int next() {
+		current = (current + 1) % COUNT;
+		return current;
+	}
+
+}
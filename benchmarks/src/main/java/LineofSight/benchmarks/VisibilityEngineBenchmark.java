@@ -0,0 +1,117 @@
+package LineofSight.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import LineofSight.ParallelRayCaster;
+import LineofSight.PolygonBuffer;
+import LineofSight.RayDirections;
+import LineofSight.SegmentIndex;
+import LineofSight.SegmentStore;
+import LineofSight.SpatialIndexType;
+import LineofSight.VisibilityEngine;
+import LineofSight.VisibilityEngineType;
+
+/**
+ * Visibility polygon of the scan line engines on the same scenes, with each of the spatial indices. The angular sweep
+ * doesn't cast scan lines, it has its own {@link AngularSweepBenchmark}.
+ *
+ * The polygon buffer is reused, so with -prof gc the serial scan line engine should not allocate anything per
+ * operation; LineofSight.AllocationCheck fails if it does. The parallel engine allocates its fork/join tasks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VisibilityEngineBenchmark {
+
+	@Param({ "SCAN_LINES", "PARALLEL_SCAN_LINES" })
+	VisibilityEngineType engine;
+
+	@Param({ "NONE", "GRID", "BVH" })
+	SpatialIndexType index;
+
+	@Param({ "1000" })
+	int scanLineCount;
+
+	@Param({ "100", "4000" })
+	int roomIterations;
+
+	@Param({ "0", "150" })
+	int lineCount;
+
+	@Param({ "true", "false" })
+	boolean limited;
+
+	Viewers viewers;
+
+	ParallelRayCaster rayCaster;
+
+	VisibilityEngine visibilityEngine;
+
+	PolygonBuffer points = new PolygonBuffer();
+
+	/**
+	 * Position of the moving viewer on its path
+	 */
+	int step = 0;
+
+	@Setup
+	public void setUp() {
+
+		SegmentStore segments = BenchmarkScene.generate(lineCount, roomIterations);
+
+		SegmentIndex segmentIndex = index.createIndex(segments, BenchmarkScene.CELL_SIZE);
+
+		rayCaster = new ParallelRayCaster(Runtime.getRuntime().availableProcessors(), 64);
+
+		visibilityEngine = engine.createEngine(segments, segmentIndex, new RayDirections(scanLineCount), rayCaster, BenchmarkScene.CELL_SIZE);
+
+		viewers = new Viewers(BenchmarkScene.SEED);
+	}
+
+	@TearDown
+	public void tearDown() {
+		rayCaster.shutdown();
+	}
+
+	@Benchmark
+	public PolygonBuffer getVisibilityPolygon() {
+		int i = viewers.next();
+		visibilityEngine.getVisibilityPolygon(viewers.x[i], viewers.y[i], BenchmarkScene.SCAN_LINE_LENGTH, limited, points);
+		return points;
+	}
+
+	/**
+	 * Viewer which moves continuously in small steps along an ellipse around the center, like a viewer following the
+	 * mouse. Consecutive queries are similar, which the scan line engines use by starting each ray with its previous
+	 * hit.
+	 */
+	@Benchmark
+	public PolygonBuffer getVisibilityPolygonMoving() {
+
+		double angle = step++ * 0.005;
+
+		double x = BenchmarkScene.WIDTH / 2 + BenchmarkScene.WIDTH / 3 * Math.cos(angle);
+		double y = BenchmarkScene.HEIGHT / 2 + BenchmarkScene.HEIGHT / 3 * Math.sin(angle);
+
+		visibilityEngine.getVisibilityPolygon(x, y, BenchmarkScene.SCAN_LINE_LENGTH, limited, points);
+
+		return points;
+	}
+
+}
@@ -0,0 +1,182 @@
+package LineofSight;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Brute force index which intersects a ray with several segments at once using the Vector API, e. g. 4 segments per
+ * instruction with AVX2 and 8 with AVX-512. The segments are stored as start point and direction, so the kernel only
+ * has to load them. The arithmetic is the same as in Algorithm.getRayIntersection, so the results are identical to the
+ * scalar segment store.
+ *
+ * Requires Java 17+ with --add-modules jdk.incubator.vector. Use VectorSupport, which falls back to the scalar segment
+ * store if the module isn't available.
+ */
+public class VectorSegmentIndex implements SegmentIndex {
+
+	static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	/**
+	 * Relative tolerance of the range pre-check, much larger than the rounding error of the division
+	 */
+	static final double RANGE_TOLERANCE = 1 + 0x1p-40;
+
+	int size;
+
+	// segment start points and directions
+	double[] x3;
+	double[] y3;
+	double[] bx;
+	double[] by;
+
+	public VectorSegmentIndex(SegmentStore segments) {
+
+		size = segments.size();
+
+		x3 = new double[size];
+		y3 = new double[size];
+		bx = new double[size];
+		by = new double[size];
+
+		for (int i = 0; i < size; i++) {
+			x3[i] = segments.x1[i];
+			y3[i] = segments.y1[i];
+			bx[i] = segments.x2[i] - segments.x1[i];
+			by[i] = segments.y2[i] - segments.y1[i];
+		}
+	}
+
+	@Override
+	public double getClosestHit(double startX, double startY, double dx, double dy) {
+		return getClosestHit(startX, startY, dx, dy, Double.POSITIVE_INFINITY, null);
+	}
+
+	@Override
+	public boolean getClosestHit(double startX, double startY, double dx, double dy, RayHit hit) {
+
+		double bound = hit.t;
+
+		return getClosestHit(startX, startY, dx, dy, bound, hit) < bound;
+	}
+
+	/**
+	 * Closest hit before the given bound, stored in the given hit if it isn't null
+	 */
+	private double getClosestHit(double startX, double startY, double dx, double dy, double bound, RayHit hit) {
+
+		VisibilityCounters.addSegmentTests(size);
+
+		DoubleVector x1 = DoubleVector.broadcast(SPECIES, startX);
+		DoubleVector y1 = DoubleVector.broadcast(SPECIES, startY);
+		DoubleVector ax = DoubleVector.broadcast(SPECIES, dx);
+		DoubleVector ay = DoubleVector.broadcast(SPECIES, dy);
+
+		// only scalars are carried through the loop, vectors in loop phis would be boxed by C2
+		double t = bound;
+		int closestIndex = -1;
+
+		int end = SPECIES.loopBound(size);
+
+		int i = 0;
+
+		for (; i < end; i += SPECIES.length()) {
+
+			DoubleVector bxv = DoubleVector.fromArray(SPECIES, bx, i);
+			DoubleVector byv = DoubleVector.fromArray(SPECIES, by, i);
+
+			DoubleVector denominator = ax.mul(byv).sub(ay.mul(bxv));
+
+			DoubleVector cx = DoubleVector.fromArray(SPECIES, x3, i).sub(x1);
+			DoubleVector cy = DoubleVector.fromArray(SPECIES, y3, i).sub(y1);
+
+			DoubleVector tNumerator = cx.mul(byv).sub(cy.mul(bxv));
+			DoubleVector uNumerator = cx.mul(ay).sub(cy.mul(ax));
+
+			// most segments are missed: check the ranges of t and u without the expensive division first. The check is
+			// a little wider than [0, 1], so it doesn't reject anything the exact check below accepts.
+			DoubleVector limit = denominator.abs().mul(RANGE_TOLERANCE);
+
+			VectorMask<Double> candidates = tNumerator.mul(denominator).compare(VectorOperators.GE, 0) //
+					.and(uNumerator.mul(denominator).compare(VectorOperators.GE, 0)) //
+					.and(tNumerator.abs().compare(VectorOperators.LE, limit)) //
+					.and(uNumerator.abs().compare(VectorOperators.LE, limit));
+
+			if (!candidates.anyTrue())
+				continue;
+
+			DoubleVector tv = tNumerator.div(denominator);
+			DoubleVector uv = uNumerator.div(denominator);
+
+			// parallel segments give NaN or infinity, which fails the range checks
+			VectorMask<Double> closer = tv.compare(VectorOperators.LT, t) //
+					.and(tv.compare(VectorOperators.GE, 0)) //
+					.and(tv.compare(VectorOperators.LE, 1)) //
+					.and(uv.compare(VectorOperators.GE, 0)) //
+					.and(uv.compare(VectorOperators.LE, 1));
+
+			if (!closer.anyTrue())
+				continue;
+
+			// rare: the closest hit moves. The scalar kernel gives the same t, and the lane order keeps the lowest
+			// segment number for equal t, same as the scalar loop.
+			for (int segment = i; segment < i + SPECIES.length(); segment++) {
+
+				double ti = intersect(startX, startY, dx, dy, segment);
+
+				if (ti < t) {
+					t = ti;
+					closestIndex = segment;
+				}
+			}
+		}
+
+		// remaining segments
+		for (; i < size; i++) {
+
+			double ti = intersect(startX, startY, dx, dy, i);
+
+			if (ti < t) {
+				t = ti;
+				closestIndex = i;
+			}
+		}
+
+		if (hit != null && closestIndex != -1) {
+			hit.set(t, closestIndex);
+		}
+
+		return closestIndex != -1 ? t : bound;
+	}
+
+	@Override
+	public double getHit(int segment, double startX, double startY, double dx, double dy) {
+		return intersect(startX, startY, dx, dy, segment);
+	}
+
+	/**
+	 * Scalar version of the kernel, same as Algorithm.getRayIntersection with the stored segment direction
+	 */
+	private double intersect(double x1, double y1, double ax, double ay, int segment) {
+
+		double denominator = ax * by[segment] - ay * bx[segment];
+
+		if (denominator == 0)
+			return Double.POSITIVE_INFINITY;
+
+		double cx = x3[segment] - x1;
+		double cy = y3[segment] - y1;
+
+		double t = (cx * by[segment] - cy * bx[segment]) / denominator;
+		if (t < 0 || t > 1)
+			return Double.POSITIVE_INFINITY;
+
+		double u = (cx * ay - cy * ax) / denominator;
+		if (u < 0 || u > 1)
+			return Double.POSITIVE_INFINITY;
+
+		return t;
+	}
+
+}
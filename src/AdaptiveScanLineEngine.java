@@ -0,0 +1,190 @@
+package LineofSight;
+
+import java.util.Arrays;
+
+/**
+ * Line of sight with adaptive refinement of the scan lines. A coarse fan of scan lines is cast first. An interval
+ * between two neighboring scan lines is subdivided only if they hit different segments, i. e. the silhouette changes
+ * somewhere in between. The subdivision stops at the angular resolution of the scan line count. The scan lines form a
+ * closed fan, so the last interval lies between the last coarse scan line and the first one.
+ *
+ * If both scan lines of an interval hit the same segment, the polygon edge between them lies on that segment and the
+ * scan lines in between wouldn't add anything but collinear vertices. If both miss, the scan lines in between get the
+ * points on the circle without being cast. So open areas and long walls only need few rays, while the corners which
+ * are found get the same resolution as the full fan.
+ *
+ * The error isn't bounded by the one of the full fan though: a feature which lies completely between two coarse scan
+ * lines and doesn't touch them is missed, e. g. a pillar or a door in a wall which both coarse scan lines hit. The
+ * coarse fan determines the smallest feature which is found reliably, so its size is the trade-off between rays and
+ * accuracy. With as many coarse scan lines as scan lines the result is the one of the full fan.
+ */
+public class AdaptiveScanLineEngine implements VisibilityEngine {
+
+	/**
+	 * Default number of scan lines of the coarse fan
+	 */
+	public static final int COARSE_SCAN_LINES = 128;
+
+	// state per scan line
+	private static final int SKIPPED = 0;
+	private static final int CAST = 1;
+	private static final int ARC = 2;
+
+	SegmentIndex index;
+	RayDirections directions;
+
+	/**
+	 * Scan lines between the rays of the coarse fan, a power of 2
+	 */
+	int coarseStep;
+
+	// result per scan line
+	int[] state;
+	double[] hitT;
+	int[] hitSegment;
+
+	RayHit hit = new RayHit();
+
+	/**
+	 * Segments in range of the viewer, if the index supports it
+	 */
+	SegmentCandidates candidates = new SegmentCandidates();
+
+	/**
+	 * Index used for the scan lines of the current viewer
+	 */
+	SegmentIndex viewerIndex;
+
+	int rayCount;
+	int hitCount;
+
+	public AdaptiveScanLineEngine(SegmentIndex index, RayDirections directions) {
+		this(index, directions, COARSE_SCAN_LINES);
+	}
+
+	/**
+	 * @param index
+	 * @param directions
+	 *            the finest scan lines, which define the angular tolerance of the refinement
+	 * @param coarseScanLines
+	 *            number of scan lines of the initial fan
+	 */
+	public AdaptiveScanLineEngine(SegmentIndex index, RayDirections directions, int coarseScanLines) {
+
+		this.index = index;
+		this.directions = directions;
+
+		coarseStep = Math.max(1, Integer.highestOneBit(directions.size() / Math.max(1, coarseScanLines)));
+
+		state = new int[directions.size()];
+		hitT = new double[directions.size()];
+		hitSegment = new int[directions.size()];
+	}
+
+	@Override
+	public void getVisibilityPolygon(double viewerX, double viewerY, double range, boolean limited, PolygonBuffer points) {
+
+		int count = directions.size();
+
+		rayCount = 0;
+		hitCount = 0;
+
+		points.clear();
+
+		if (count == 0)
+			return;
+
+		Arrays.fill(state, SKIPPED);
+
+		viewerIndex = index.select(viewerX, viewerY, range, candidates);
+
+		cast(viewerX, viewerY, range, 0);
+
+		for (int from = 0; from < count; from += coarseStep) {
+
+			// the last interval wraps around to scan line 0, which has been cast already
+			int to = Math.min(from + coarseStep, count);
+
+			if (to < count) {
+				cast(viewerX, viewerY, range, to);
+			}
+
+			refine(viewerX, viewerY, range, from, to);
+		}
+
+		// collect the points in scan line order
+		for (int i = 0; i < count; i++) {
+
+			double dx = directions.cos[i] * range;
+			double dy = directions.sin[i] * range;
+
+			if (state[i] == CAST && hitSegment[i] != -1) {
+				points.add(viewerX + hitT[i] * dx, viewerY + hitT[i] * dy);
+			}
+			// no intersection found => full scan line length
+			else if (state[i] != SKIPPED && limited) {
+				points.add(viewerX + dx, viewerY + dy);
+			}
+		}
+
+		VisibilityCounters.addRays(rayCount, hitCount);
+	}
+
+	/**
+	 * Subdivide the interval between the cast scan lines from and to until both ends hit the same segment or there
+	 * aren't any scan lines in between. To may be the scan line count, which stands for scan line 0.
+	 */
+	private void refine(double viewerX, double viewerY, double range, int from, int to) {
+
+		if (to - from <= 1)
+			return;
+
+		int end = to == directions.size() ? 0 : to;
+
+		if (hitSegment[from] == hitSegment[end]) {
+
+			// both missed: the scan lines in between end on the circle as well
+			if (hitSegment[from] == -1) {
+				for (int i = from + 1; i < to; i++) {
+					state[i] = ARC;
+				}
+			}
+
+			return;
+		}
+
+		int mid = (from + to) >>> 1;
+
+		cast(viewerX, viewerY, range, mid);
+
+		refine(viewerX, viewerY, range, from, mid);
+		refine(viewerX, viewerY, range, mid, to);
+	}
+
+	private void cast(double viewerX, double viewerY, double range, int i) {
+
+		double dx = directions.cos[i] * range;
+		double dy = directions.sin[i] * range;
+
+		hit.clear();
+		viewerIndex.getClosestHit(viewerX, viewerY, dx, dy, hit);
+
+		state[i] = CAST;
+		hitT[i] = hit.t;
+		hitSegment[i] = hit.segment;
+
+		rayCount++;
+
+		if (hit.segment != -1) {
+			hitCount++;
+		}
+	}
+
+	/**
+	 * Number of rays cast for the last polygon
+	 */
+	public int getRayCount() {
+		return rayCount;
+	}
+
+}
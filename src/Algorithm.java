@@ -9,20 +9,21 @@ public class Algorithm {
 	 * Sweep around the given circle with the given distance and create the scan lines
 	 * @param startX
 	 * @param startY
+	 * @param scanLineCount
+	 * @param scanLineLength
 	 * @return
 	 */
-	public List<Line> createScanLines( double startX, double startY) {
+	public List<Line> createScanLines( double startX, double startY, int scanLineCount, double scanLineLength) {
 		
 		List<Line> scanLines;
 		
 		double angleStart = 0;
 		double angleEnd = Math.PI * 2;
-		double step = Math.PI / Settings.get().getScanLineCount();
+		double step = Math.PI / scanLineCount;
 		
 		scanLines = new ArrayList<>();
 		
 		PVector scanLine = new PVector( startX, startY);
-		double scanLineLength = Settings.get().getScanLineLength();
 		
 		for( double angle = angleStart; angle < angleEnd; angle += step) {
 
@@ -43,15 +44,18 @@ public class Algorithm {
      *
 	 * @param scanLines
 	 * @param sceneLines
+	 * @param limitToScanLineLength
+	 *            use the scan line end point if there's no intersection
+	 * @param scanLineLength
 	 * @return
 	 */
-	public List<PVector> getIntersectionPoints(List<Line> scanLines, List<Line> sceneLines) {
+	public List<PVector> getIntersectionPoints(List<Line> scanLines, List<Line> sceneLines, boolean limitToScanLineLength, double scanLineLength) {
 
 		List<PVector> points = new ArrayList<>();
 
 		for (Line scanLine : scanLines) {
 
-			List<PVector> intersections = getIntersections(scanLine, sceneLines);
+			List<PVector> intersections = getIntersections(scanLine, sceneLines, limitToScanLineLength, scanLineLength);
 
 			double x = 0;
 			double y = 0;
@@ -81,13 +85,131 @@ public class Algorithm {
 		return points;
 	}
 
+	/**
+	 * Get the closest intersecting point per scan line using a spatial index instead of testing all scene lines.
+	 * The scan lines are given by the start point and the precalculated directions, so they don't have to be created.
+	 * Only the parameter t of the closest hit is tracked and the points are written into the given buffer, so apart
+	 * from growing the buffer nothing is allocated.
+	 *
+	 * @param startX
+	 * @param startY
+	 * @param directions
+	 * @param scanLineLength
+	 * @param limitToScanLineLength
+	 *            use the scan line end point if there's no intersection
+	 * @param index
+	 * @param points
+	 */
+	public void getIntersectionPoints(double startX, double startY, RayDirections directions, double scanLineLength, boolean limitToScanLineLength, SegmentIndex index, PolygonBuffer points) {
+
+		points.clear();
+
+		int hits = 0;
+
+		for (int i = 0; i < directions.count; i++) {
+
+			double dx = directions.cos[i] * scanLineLength;
+			double dy = directions.sin[i] * scanLineLength;
+
+			double t = index.getClosestHit(startX, startY, dx, dy);
+
+			if (t != Double.POSITIVE_INFINITY) {
+				points.add(startX + t * dx, startY + t * dy);
+				hits++;
+			}
+			// no intersection found => full scan line length
+			else if (limitToScanLineLength) {
+				points.add(startX + dx, startY + dy);
+			}
+
+		}
+
+		VisibilityCounters.addRays(directions.count, hits);
+
+	}
+
+	/**
+	 * Same as getIntersectionPoints with a spatial index, but each ray first tests the segment it hit the last time.
+	 * When the viewer moves continuously, most rays hit the same segment again, and the index can skip everything
+	 * beyond that hit. The result is the same as without the previous hits.
+	 *
+	 * @param startX
+	 * @param startY
+	 * @param directions
+	 * @param scanLineLength
+	 * @param limitToScanLineLength
+	 *            use the scan line end point if there's no intersection
+	 * @param index
+	 * @param hitSegments
+	 *            segment hit by each scan line, -1 for none; updated with the new hits
+	 * @param hit
+	 *            reused for the queries
+	 * @param points
+	 */
+	public void getIntersectionPoints(double startX, double startY, RayDirections directions, double scanLineLength, boolean limitToScanLineLength, SegmentIndex index, int[] hitSegments, RayHit hit, PolygonBuffer points) {
+
+		points.clear();
+
+		int hits = 0;
+
+		for (int i = 0; i < directions.count; i++) {
+
+			double dx = directions.cos[i] * scanLineLength;
+			double dy = directions.sin[i] * scanLineLength;
+
+			castCoherentRay(startX, startY, dx, dy, index, hitSegments, i, hit);
+
+			if (hit.isHit()) {
+				points.add(startX + hit.t * dx, startY + hit.t * dy);
+				hits++;
+			}
+			// no intersection found => full scan line length
+			else if (limitToScanLineLength) {
+				points.add(startX + dx, startY + dy);
+			}
+
+		}
+
+		VisibilityCounters.addRays(directions.count, hits);
+
+	}
+
+	/**
+	 * Find the closest hit of scan line i, bounded by the segment which was hit by the scan line the last time, and
+	 * remember the new hit segment.
+	 */
+	static void castCoherentRay(double startX, double startY, double dx, double dy, SegmentIndex index, int[] hitSegments, int i, RayHit hit) {
+
+		hit.clear();
+
+		int previous = hitSegments[i];
+
+		if (previous != -1) {
+
+			VisibilityCounters.addSegmentTests(1);
+
+			double t = index.getHit(previous, startX, startY, dx, dy);
+
+			if (t != Double.POSITIVE_INFINITY) {
+				hit.set(t, previous);
+			}
+		}
+
+		index.getClosestHit(startX, startY, dx, dy, hit);
+
+		hitSegments[i] = hit.segment;
+	}
+
 	/**
 	 * Find intersecting lines
 	 * @param scanLine
 	 * @param sceneLines
+	 * @param limitToScanLineLength
+	 * @param maxLength
+	 *            maximum scan line length
 	 * @return
 	 */
-	public List<PVector> getIntersections(Line scanLine, List<Line> sceneLines) {
+	public List<PVector> getIntersections(Line scanLine, List<Line> sceneLines, boolean limitToScanLineLength, double maxLength) {
 
 		List<PVector> list = new ArrayList<>();
 
@@ -107,10 +229,7 @@ public class Algorithm {
 			}
 
 			// check if the intersection area should be limited to a visible area
-			if (Settings.get().isLimitToScanLineLength()) {
-
-				// maximum scan line length
-				double maxLength = Settings.get().getScanLineLength();
+			if (limitToScanLineLength) {
 
 				PVector start = scanLine.getStart();
 
@@ -180,4 +299,34 @@ public class Algorithm {
 		return new PVector(x1 + t * ax, y1 + t * ay);
 	}
 
+	/**
+	 * Intersection of the ray start + t * (ax,ay) with the line segment (x3,y3)-(x4,y4), same math as
+	 * getLineIntersection, but without allocating the intersection point.
+	 *
+	 * @return the parameter t in [0,1] of the intersection or Double.POSITIVE_INFINITY if the ray misses the segment
+	 */
+	static double getRayIntersection(double x1, double y1, double ax, double ay, double x3, double y3, double x4, double y4) {
+
+		double bx = x4 - x3;
+		double by = y4 - y3;
+
+		double denominator = ax * by - ay * bx;
+
+		if (denominator == 0)
+			return Double.POSITIVE_INFINITY;
+
+		double cx = x3 - x1;
+		double cy = y3 - y1;
+
+		double t = (cx * by - cy * bx) / denominator;
+		if (t < 0 || t > 1)
+			return Double.POSITIVE_INFINITY;
+
+		double u = (cx * ay - cy * ax) / denominator;
+		if (u < 0 || u > 1)
+			return Double.POSITIVE_INFINITY;
+
+		return t;
+	}
+
 }
@@ -0,0 +1,198 @@
+package LineofSight;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Checks that the visibility queries don't allocate anything once they are warmed up. Every serial engine is queried
+ * with every spatial index on generated levels, limited and unlimited; the bytes which the thread allocates during the
+ * measured queries have to be 0. The process exits with status 1 if a combination allocates. Doesn't use JavaFX.
+ *
+ * The vector index needs --add-modules jdk.incubator.vector, otherwise it would only measure the scalar fallback again.
+ * The check fails without the module unless it's started with --without-vector, which skips the vector index.
+ *
+ * The warmup queries the same viewers as the measurement, so the reused buffers have already reached their final
+ * size. The parallel engine isn't checked, it allocates its fork/join tasks.
+ */
+public class AllocationCheck {
+
+	static final double WIDTH = 980;
+	static final double HEIGHT = 720;
+	static final double CELL_SIZE = WIDTH / 60;
+
+	static final int SCAN_LINE_COUNT = 1000;
+	static final int VIEWER_COUNT = 50;
+
+	/**
+	 * Queries of all viewers before and during the measurement
+	 */
+	static final int WARMUP_ROUNDS = 3;
+	static final int MEASURED_ROUNDS = 3;
+
+	/**
+	 * Levels as line count and room iterations
+	 */
+	static final int[][] LEVELS = { { 0, 4000 }, { 150, 100 } };
+
+	static final long SEED = 1;
+
+	private final com.sun.management.ThreadMXBean threads;
+
+	/**
+	 * Bytes which reading the allocation counter itself allocates
+	 */
+	private final long overhead;
+
+	/**
+	 * Skip the vector index instead of failing if the vector kernel isn't available
+	 */
+	private final boolean withoutVector;
+
+	private final PolygonBuffer points = new PolygonBuffer();
+
+	public static void main(String[] args) {
+
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+		if (!(threads instanceof com.sun.management.ThreadMXBean) || !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+
+			System.err.println("The JVM doesn't measure the allocations per thread");
+
+			System.exit(1);
+		}
+
+		boolean withoutVector = args.length == 1 && args[0].equals("--without-vector");
+
+		if (args.length > 0 && !withoutVector) {
+
+			System.err.println("Usage: AllocationCheck [--without-vector]");
+
+			System.exit(1);
+		}
+
+		if (!withoutVector && !VectorSupport.isAvailable()) {
+
+			System.err.println("The vector kernel isn't available, run with --add-modules jdk.incubator.vector or skip it with --without-vector");
+
+			System.exit(1);
+		}
+
+		AllocationCheck check = new AllocationCheck((com.sun.management.ThreadMXBean) threads, withoutVector);
+
+		int failures = check.run();
+
+		if (failures > 0) {
+
+			System.err.println(failures + " engine and index combinations allocate");
+
+			System.exit(1);
+		}
+
+		System.out.println("No allocations");
+	}
+
+	public AllocationCheck(com.sun.management.ThreadMXBean threads, boolean withoutVector) {
+
+		this.threads = threads;
+		this.withoutVector = withoutVector;
+
+		long start = getAllocatedBytes();
+		overhead = getAllocatedBytes() - start;
+	}
+
+	private long getAllocatedBytes() {
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Check all combinations and print one line per combination
+	 *
+	 * @return the number of combinations which allocate
+	 */
+	int run() {
+
+		int failures = 0;
+
+		for (int[] level : LEVELS) {
+
+			LevelGenerator levelGenerator = new LevelGenerator(WIDTH, HEIGHT, CELL_SIZE, SEED);
+			levelGenerator.generate(level[0], level[1]);
+
+			SegmentStore segments = levelGenerator.getSegments();
+			PortalGraph portalGraph = levelGenerator.getPortalGraph();
+
+			double[] viewers = createViewers();
+
+			RayDirections directions = new RayDirections(SCAN_LINE_COUNT);
+
+			System.out.println(String.format(Locale.ROOT, "# level lines=%d rooms=%d segments=%d", level[0], level[1], segments.size()));
+
+			for (VisibilityEngineType engineType : VisibilityEngineType.values()) {
+
+				if (engineType == VisibilityEngineType.PARALLEL_SCAN_LINES)
+					continue;
+
+				for (SpatialIndexType indexType : SpatialIndexType.values()) {
+
+					if (indexType == SpatialIndexType.VECTOR && withoutVector) {
+
+						System.out.println(String.format(Locale.ROOT, "%-20s %-8s %10s       skipped", engineType.name(), indexType.name(), "-"));
+
+						continue;
+					}
+
+					SegmentIndex index = indexType.createIndex(segments, portalGraph, CELL_SIZE);
+					VisibilityEngine engine = engineType.createEngine(segments, index, directions, null, CELL_SIZE);
+
+					for (int round = 0; round < WARMUP_ROUNDS; round++) {
+						query(engine, viewers);
+					}
+
+					long start = getAllocatedBytes();
+
+					for (int round = 0; round < MEASURED_ROUNDS; round++) {
+						query(engine, viewers);
+					}
+
+					long allocated = getAllocatedBytes() - start - overhead;
+
+					if (allocated > 0) {
+						failures++;
+					}
+
+					System.out.println(String.format(Locale.ROOT, "%-20s %-8s %10d bytes %s", engineType.name(), indexType.name(), allocated, allocated > 0 ? "FAILED" : "ok"));
+				}
+			}
+		}
+
+		return failures;
+	}
+
+	/**
+	 * Query each viewer with a limited short range and with an unlimited long one
+	 */
+	private void query(VisibilityEngine engine, double[] viewers) {
+
+		for (int i = 0; i < viewers.length; i += 2) {
+			engine.getVisibilityPolygon(viewers[i], viewers[i + 1], 200, true, points);
+			engine.getVisibilityPolygon(viewers[i], viewers[i + 1], 1000, false, points);
+		}
+	}
+
+	private static double[] createViewers() {
+
+		// different sequence than the level
+		Random rnd = new Random(~SEED);
+
+		double[] viewers = new double[VIEWER_COUNT * 2];
+
+		for (int i = 0; i < viewers.length; i += 2) {
+			viewers[i] = rnd.nextDouble() * WIDTH;
+			viewers[i + 1] = rnd.nextDouble() * HEIGHT;
+		}
+
+		return viewers;
+	}
+
+}
@@ -0,0 +1,725 @@
+package LineofSight;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Exact visibility polygon by sweeping the segment endpoints in angular order around the viewer.
+ *
+ * The active segments, i. e. the ones crossed by the current sweep ray, are kept in a set which is ordered by
+ * distance from the viewer. Whenever the closest segment changes, the visible boundary jumps and the polygon gets a
+ * vertex on the previous and one on the new closest segment. The cost is O(n log n) for n segments in range, the
+ * number of vertices depends on the scene instead of the scan line count.
+ *
+ * The ordering requires segments that don't cross each other, so crossing scene lines are split once when the sweep
+ * is created. The segments in range are taken from the index of the scene lines, so range culling and the other
+ * candidate selecting indices restrict the sweep the same way as the scan lines.
+ *
+ * The pieces, the events and the active list are reused between queries, a query doesn't allocate anything once they
+ * have reached the size of the largest one.
+ */
+public class AngularSweep implements VisibilityEngine {
+
+	/**
+	 * Maximum distance between the arc of the scan line circle and its polygon approximation
+	 */
+	static final double ARC_TOLERANCE = 0.25;
+
+	/**
+	 * Events whose angles differ by less than this are processed together
+	 */
+	static final double ANGLE_EPSILON = 1e-12;
+
+	/**
+	 * Relative distance below which two pieces are considered to be at the same depth
+	 */
+	static final double DEPTH_EPSILON = 1e-9;
+
+	/**
+	 * Non-crossing scene segments
+	 */
+	SegmentStore segments;
+
+	/**
+	 * The non-crossing segments of scene line i are splitStart[i] .. splitStart[i+1]-1
+	 */
+	int[] splitStart;
+
+	/**
+	 * Index over the scene lines, selects the lines in range of the viewer
+	 */
+	SegmentIndex index;
+
+	/**
+	 * Scene lines in range of the viewer, if the index supports it
+	 */
+	SegmentCandidates candidates = new SegmentCandidates();
+
+	/**
+	 * Pieces of the current query, reused between queries
+	 */
+	Piece[] pieces = new Piece[256];
+	int pieceCount;
+
+	/**
+	 * Start and end events of the pieces sorted by angle. Event 2 * i is the start of piece i, event 2 * i + 1 its end.
+	 */
+	double[] eventAngles = new double[512];
+	int[] events = new int[512];
+
+	/**
+	 * Pieces crossed by the current sweep ray, closest first
+	 */
+	Piece[] active = new Piece[64];
+	int activeCount;
+
+	DepthComparator depthComparator = new DepthComparator();
+
+	/**
+	 * Segment in range of the viewer, clipped to the scan line circle and oriented counter clockwise as seen from the
+	 * viewer
+	 */
+	private static class Piece {
+
+		int id;
+
+		double startX;
+		double startY;
+		double endX;
+		double endY;
+
+		double startAngle;
+		double endAngle;
+
+		// unit directions from the viewer to the start and end point
+		double startDirX;
+		double startDirY;
+		double endDirX;
+		double endDirY;
+	}
+
+	public AngularSweep(SegmentStore lines, double cellSize) {
+		this(lines, lines, cellSize);
+	}
+
+	/**
+	 * @param lines
+	 *            the scene lines
+	 * @param index
+	 *            index over the scene lines, used for selecting the lines in range of the viewer
+	 * @param cellSize
+	 *            cell size of the grid used for finding the crossing lines
+	 */
+	public AngularSweep(SegmentStore lines, SegmentIndex index, double cellSize) {
+		this.index = index;
+
+		splitCrossingLines(lines, cellSize);
+	}
+
+	/**
+	 * Split the lines at the points where they cross other lines. Candidate pairs are the lines which share a grid
+	 * cell. Both lines get exactly the same split point, so that the pieces meet at the same angle during the sweep.
+	 */
+	private void splitCrossingLines(SegmentStore lines, double cellSize) {
+
+		int n = lines.size();
+
+		// split parameter and point per line, as triples (t, x, y)
+		double[][] splits = new double[n][];
+		int[] splitCount = new int[n];
+
+		SceneGrid grid = new SceneGrid(lines, cellSize);
+
+		for (int cell = 0; cell < grid.cols * grid.rows; cell++) {
+
+			for (int i = grid.cellStart[cell]; i < grid.cellStart[cell + 1]; i++) {
+
+				int a = grid.cellLines[i];
+
+				for (int j = i + 1; j < grid.cellStart[cell + 1]; j++) {
+
+					int b = grid.cellLines[j];
+
+					double ax = lines.x2[a] - lines.x1[a];
+					double ay = lines.y2[a] - lines.y1[a];
+					double bx = lines.x2[b] - lines.x1[b];
+					double by = lines.y2[b] - lines.y1[b];
+
+					double denominator = ax * by - ay * bx;
+
+					if (denominator == 0)
+						continue;
+
+					double cx = lines.x1[b] - lines.x1[a];
+					double cy = lines.y1[b] - lines.y1[a];
+
+					double t = (cx * by - cy * bx) / denominator;
+					double u = (cx * ay - cy * ax) / denominator;
+
+					// only proper crossings, touching lines can stay as they are
+					if (t <= 1e-9 || t >= 1 - 1e-9 || u <= 1e-9 || u >= 1 - 1e-9)
+						continue;
+
+					double x = lines.x1[a] + t * ax;
+					double y = lines.y1[a] + t * ay;
+
+					addSplit(splits, splitCount, a, t, x, y);
+					addSplit(splits, splitCount, b, u, x, y);
+				}
+			}
+		}
+
+		// create the segments
+		int total = n;
+		for (int i = 0; i < n; i++) {
+			total += splitCount[i];
+		}
+
+		segments = new SegmentStore(total);
+		splitStart = new int[n + 1];
+
+		for (int i = 0; i < n; i++) {
+
+			double previousT = 0;
+			double previousX = lines.x1[i];
+			double previousY = lines.y1[i];
+
+			double[] split = splits[i];
+
+			// sort by parameter; there are only few splits per line
+			for (int k = 1; k < splitCount[i]; k++) {
+				for (int m = k; m > 0 && split[m * 3] < split[(m - 1) * 3]; m--) {
+					for (int c = 0; c < 3; c++) {
+						double tmp = split[m * 3 + c];
+						split[m * 3 + c] = split[(m - 1) * 3 + c];
+						split[(m - 1) * 3 + c] = tmp;
+					}
+				}
+			}
+
+			for (int k = 0; k < splitCount[i]; k++) {
+
+				// the same pair can be found in multiple cells, so duplicates are skipped
+				if (split[k * 3] - previousT < 1e-9)
+					continue;
+
+				addSegment(previousX, previousY, split[k * 3 + 1], split[k * 3 + 2]);
+
+				previousT = split[k * 3];
+				previousX = split[k * 3 + 1];
+				previousY = split[k * 3 + 2];
+			}
+
+			addSegment(previousX, previousY, lines.x2[i], lines.y2[i]);
+
+			splitStart[i + 1] = segments.size();
+		}
+
+	}
+
+	private static void addSplit(double[][] splits, int[] splitCount, int line, double t, double x, double y) {
+
+		if (splits[line] == null) {
+			splits[line] = new double[4 * 3];
+		} else if ((splitCount[line] + 1) * 3 > splits[line].length) {
+			splits[line] = Arrays.copyOf(splits[line], splits[line].length * 2);
+		}
+
+		int index = splitCount[line]++ * 3;
+
+		splits[line][index] = t;
+		splits[line][index + 1] = x;
+		splits[line][index + 2] = y;
+	}
+
+	private void addSegment(double ax, double ay, double bx, double by) {
+
+		// skip dots
+		if (ax == bx && ay == by)
+			return;
+
+		segments.add(ax, ay, bx, by);
+	}
+
+	/**
+	 * Calculate the visibility polygon of the given viewer. The visible area is limited to the scan line circle with
+	 * the given radius. If the visible area is limited, the parts without segments are bounded by the circle arc,
+	 * otherwise they don't get any vertices, same as scan lines without intersection.
+	 *
+	 * The polygon vertices are written into the given buffer in counter clockwise order, starting at the ray which
+	 * points in negative x direction.
+	 */
+	@Override
+	public void getVisibilityPolygon(double viewerX, double viewerY, double radius, boolean limited, PolygonBuffer points) {
+
+		points.clear();
+
+		createPieces(viewerX, viewerY, radius);
+
+		// events: start (insert) and end (remove) of each piece, sorted by angle; events at the same angle are
+		// processed together with the removals first, so their order doesn't matter
+		int eventCount = pieceCount * 2;
+
+		if (eventCount > events.length) {
+			events = new int[Math.max(eventCount, events.length * 2)];
+			eventAngles = new double[events.length];
+		}
+
+		for (int i = 0; i < pieceCount; i++) {
+
+			events[i * 2] = i * 2;
+			eventAngles[i * 2] = pieces[i].startAngle;
+
+			events[i * 2 + 1] = i * 2 + 1;
+			eventAngles[i * 2 + 1] = pieces[i].endAngle;
+		}
+
+		sort(eventAngles, events, 0, eventCount - 1);
+
+		activeCount = 0;
+		depthComparator.viewerX = viewerX;
+		depthComparator.viewerY = viewerY;
+
+		double arcStep = radius > ARC_TOLERANCE ? 2 * Math.acos(1 - ARC_TOLERANCE / radius) : Math.PI / 4;
+
+		double angle = -Math.PI;
+		Piece closest = null;
+
+		// nothing in range at the start of the sweep
+		if (limited && (eventCount == 0 || eventAngles[0] > -Math.PI)) {
+			points.add(viewerX - radius, viewerY);
+		}
+
+		int i = 0;
+		while (i < eventCount) {
+
+			double eventAngle = eventAngles[i];
+
+			// nothing in range between the previous and the current event => arc of the circle
+			if (closest == null && limited) {
+				for (double a = angle + arcStep; a < eventAngle; a += arcStep) {
+					points.add(viewerX + Math.cos(a) * radius, viewerY + Math.sin(a) * radius);
+				}
+			}
+
+			// all events at the same angle; pieces which meet in a common point can differ by rounding errors
+			int groupEnd = i;
+			while (groupEnd < eventCount && eventAngles[groupEnd] - eventAngle <= ANGLE_EPSILON) {
+				groupEnd++;
+			}
+
+			// remove first, so that pieces which only touch are never compared
+			for (int k = i; k < groupEnd; k++) {
+				if ((events[k] & 1) == 1) {
+					removeActive(pieces[events[k] >> 1]);
+				}
+			}
+
+			for (int k = i; k < groupEnd; k++) {
+				if ((events[k] & 1) == 0) {
+					addActive(pieces[events[k] >> 1]);
+				}
+			}
+
+			i = groupEnd;
+
+			Piece next = activeCount == 0 ? null : active[0];
+
+			if (next != closest || eventAngle == -Math.PI) {
+
+				double dirX = Math.cos(eventAngle);
+				double dirY = Math.sin(eventAngle);
+
+				// boundary before the event
+				if (eventAngle != -Math.PI) {
+					addBoundaryPoint(points, closest, viewerX, viewerY, dirX, dirY, radius, limited);
+				}
+
+				// boundary after the event; at the end of the sweep that's the start of the polygon
+				if (i < eventCount || eventAngle < Math.PI - ANGLE_EPSILON) {
+					addBoundaryPoint(points, next, viewerX, viewerY, dirX, dirY, radius, limited);
+				}
+
+				closest = next;
+			}
+
+			angle = eventAngle;
+		}
+
+		// close the sweep
+		if (closest == null && limited) {
+			for (double a = angle + arcStep; a < Math.PI; a += arcStep) {
+				points.add(viewerX + Math.cos(a) * radius, viewerY + Math.sin(a) * radius);
+			}
+		}
+
+	}
+
+	/**
+	 * Insert the piece into the active list, ordered by distance from the viewer
+	 */
+	private void addActive(Piece piece) {
+
+		if (activeCount == active.length) {
+			active = Arrays.copyOf(active, activeCount * 2);
+		}
+
+		int position = findActive(piece);
+
+		System.arraycopy(active, position, active, position + 1, activeCount - position);
+		active[position] = piece;
+		activeCount++;
+	}
+
+	private void removeActive(Piece piece) {
+
+		int position = findActive(piece);
+
+		// the depth order is consistent while the pieces are active, the scan is only a safeguard against rounding
+		if (position >= activeCount || active[position] != piece) {
+			for (position = 0; position < activeCount && active[position] != piece; position++) {
+			}
+		}
+
+		if (position == activeCount)
+			return;
+
+		System.arraycopy(active, position + 1, active, position, activeCount - position - 1);
+		active[--activeCount] = null;
+	}
+
+	/**
+	 * Position of the first active piece which isn't closer than the given one, by binary search
+	 */
+	private int findActive(Piece piece) {
+
+		int low = 0;
+		int high = activeCount;
+
+		while (low < high) {
+
+			int mid = (low + high) >>> 1;
+
+			if (depthComparator.compare(active[mid], piece) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	/**
+	 * Sort the events by angle, quicksort with insertion sort for short ranges
+	 */
+	private static void sort(double[] keys, int[] values, int lo, int hi) {
+
+		while (hi - lo > 16) {
+
+			double pivot = keys[(lo + hi) >>> 1];
+
+			int i = lo;
+			int j = hi;
+
+			while (i <= j) {
+
+				while (keys[i] < pivot) {
+					i++;
+				}
+				while (keys[j] > pivot) {
+					j--;
+				}
+
+				if (i <= j) {
+					swap(keys, values, i++, j--);
+				}
+			}
+
+			// recurse into the smaller part, loop over the larger one
+			if (j - lo < hi - i) {
+				sort(keys, values, lo, j);
+				lo = i;
+			} else {
+				sort(keys, values, i, hi);
+				hi = j;
+			}
+		}
+
+		for (int i = lo + 1; i <= hi; i++) {
+			for (int j = i; j > lo && keys[j] < keys[j - 1]; j--) {
+				swap(keys, values, j, j - 1);
+			}
+		}
+	}
+
+	private static void swap(double[] keys, int[] values, int i, int j) {
+
+		double key = keys[i];
+		keys[i] = keys[j];
+		keys[j] = key;
+
+		int value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+	}
+
+	/**
+	 * Add the point at which the ray from the viewer in the given direction hits the piece, or the point on the circle
+	 * if there is no piece and the visible area is limited. Consecutive duplicates are skipped.
+	 */
+	private static void addBoundaryPoint(PolygonBuffer points, Piece piece, double viewerX, double viewerY, double dirX, double dirY, double radius, boolean limited) {
+
+		double x;
+		double y;
+
+		if (piece != null) {
+
+			double distance = distance(piece, viewerX, viewerY, dirX, dirY);
+			x = viewerX + dirX * distance;
+			y = viewerY + dirY * distance;
+
+		} else if (limited) {
+
+			x = viewerX + dirX * radius;
+			y = viewerY + dirY * radius;
+
+		} else {
+			return;
+		}
+
+		if (!points.isEmpty() && Math.abs(points.getLastX() - x) < 1e-9 && Math.abs(points.getLastY() - y) < 1e-9)
+			return;
+
+		points.add(x, y);
+	}
+
+	/**
+	 * Distance from the viewer along the given unit direction to the line through the piece.
+	 */
+	private static double distance(Piece piece, double viewerX, double viewerY, double dirX, double dirY) {
+
+		double sx = piece.endX - piece.startX;
+		double sy = piece.endY - piece.startY;
+
+		double denominator = dirX * sy - dirY * sx;
+
+		// ray parallel to the piece, i. e. it lies on the ray: the start point is the nearest point
+		if (denominator == 0) {
+			return Math.hypot(piece.startX - viewerX, piece.startY - viewerY);
+		}
+
+		return ((piece.startX - viewerX) * sy - (piece.startY - viewerY) * sx) / denominator;
+	}
+
+	/**
+	 * Clip the segments to the scan line circle, orient them counter clockwise and split the ones which cross the ray
+	 * in negative x direction, so that every piece covers an angular interval within [-PI, PI]. Only the segments of
+	 * the scene lines selected by the index are considered, in the order of the store.
+	 */
+	private void createPieces(double viewerX, double viewerY, double radius) {
+
+		pieceCount = 0;
+
+		SegmentIndex viewerIndex = index.select(viewerX, viewerY, radius, candidates);
+
+		if (viewerIndex == candidates) {
+
+			for (int c = 0; c < candidates.size(); c++) {
+
+				int line = candidates.ids[c];
+
+				for (int i = splitStart[line]; i < splitStart[line + 1]; i++) {
+					createPieces(i, viewerX, viewerY, radius);
+				}
+			}
+
+		} else {
+
+			for (int i = 0; i < segments.size; i++) {
+				createPieces(i, viewerX, viewerY, radius);
+			}
+		}
+	}
+
+	/**
+	 * Create the pieces of a single segment
+	 */
+	private void createPieces(int i, double viewerX, double viewerY, double radius) {
+
+		double radiusSquared = radius * radius;
+
+		double ax = segments.x1[i] - viewerX;
+		double ay = segments.y1[i] - viewerY;
+		double bx = segments.x2[i] - viewerX;
+		double by = segments.y2[i] - viewerY;
+
+		// clip to the circle: solve |a + t * (b - a)| = radius
+		double dx = bx - ax;
+		double dy = by - ay;
+
+		double qa = dx * dx + dy * dy;
+		double qb = 2 * (ax * dx + ay * dy);
+		double qc = ax * ax + ay * ay - radiusSquared;
+
+		double discriminant = qb * qb - 4 * qa * qc;
+
+		if (discriminant <= 0)
+			return;
+
+		double root = Math.sqrt(discriminant);
+
+		double t0 = Math.max(0, (-qb - root) / (2 * qa));
+		double t1 = Math.min(1, (-qb + root) / (2 * qa));
+
+		if (t0 >= t1)
+			return;
+
+		double px = ax + t0 * dx;
+		double py = ay + t0 * dy;
+		double qx = ax + t1 * dx;
+		double qy = ay + t1 * dy;
+
+		// orientation as seen from the viewer; segments which point to the viewer are invisible
+		double cross = px * qy - py * qx;
+
+		if (cross == 0)
+			return;
+
+		if (cross < 0) {
+			double tmp = px;
+			px = qx;
+			qx = tmp;
+			tmp = py;
+			py = qy;
+			qy = tmp;
+		}
+
+		// crossing the negative x axis: from y > 0 (angle near PI) to y < 0 (angle near -PI)
+		if (py >= 0 && qy < 0 && (px * qy - py * qx) > 0 && px + (qx - px) * (py / (py - qy)) < 0) {
+
+			double s = py / (py - qy);
+			double mx = px + (qx - px) * s;
+
+			if (py > 0) {
+				addPiece(i, px, py, mx, 0, viewerX, viewerY, Math.atan2(py, px), Math.PI);
+			}
+			addPiece(i, mx, 0, qx, qy, viewerX, viewerY, -Math.PI, Math.atan2(qy, qx));
+
+		} else {
+
+			double startAngle = Math.atan2(py, px);
+			double endAngle = Math.atan2(qy, qx);
+
+			// start on the negative x axis, coming from y = 0 and going to y > 0
+			if (startAngle == Math.PI) {
+				startAngle = -Math.PI;
+			}
+
+			// end on the negative x axis, coming from y < 0
+			if (endAngle == -Math.PI) {
+				endAngle = Math.PI;
+			}
+
+			addPiece(i, px, py, qx, qy, viewerX, viewerY, startAngle, endAngle);
+		}
+
+	}
+
+	private void addPiece(int id, double px, double py, double qx, double qy, double viewerX, double viewerY, double startAngle, double endAngle) {
+
+		if (pieceCount == pieces.length) {
+			pieces = Arrays.copyOf(pieces, pieceCount * 2);
+		}
+
+		Piece piece = pieces[pieceCount];
+
+		if (piece == null) {
+			piece = new Piece();
+			pieces[pieceCount] = piece;
+		}
+
+		pieceCount++;
+
+		piece.id = id;
+
+		piece.startX = viewerX + px;
+		piece.startY = viewerY + py;
+		piece.endX = viewerX + qx;
+		piece.endY = viewerY + qy;
+
+		piece.startAngle = startAngle;
+		piece.endAngle = endAngle;
+
+		double startLength = Math.hypot(px, py);
+		double endLength = Math.hypot(qx, qy);
+
+		piece.startDirX = px / startLength;
+		piece.startDirY = py / startLength;
+		piece.endDirX = qx / endLength;
+		piece.endDirY = qy / endLength;
+	}
+
+	/**
+	 * Orders the active pieces by distance from the viewer. Two pieces are compared along the bisector of the angular
+	 * interval they have in common. Since the pieces don't cross, the result is the same for every ray in that
+	 * interval and thus consistent while both pieces are active.
+	 */
+	private static class DepthComparator implements Comparator<Piece> {
+
+		double viewerX;
+		double viewerY;
+
+		@Override
+		public int compare(Piece a, Piece b) {
+
+			if (a == b)
+				return 0;
+
+			// evaluate each pair in the same order, so that rounding can't make the result asymmetric
+			int order = Integer.compare(a.id, b.id);
+			if (order == 0) {
+				order = Double.compare(a.startAngle, b.startAngle);
+			}
+
+			return order < 0 ? compareDepth(a, b) : -compareDepth(b, a);
+		}
+
+		private int compareDepth(Piece a, Piece b) {
+
+			// common interval: the later start and the earlier end
+			double fromX;
+			double fromY;
+			if (a.startAngle >= b.startAngle) {
+				fromX = a.startDirX;
+				fromY = a.startDirY;
+			} else {
+				fromX = b.startDirX;
+				fromY = b.startDirY;
+			}
+
+			double toX;
+			double toY;
+			if (a.endAngle <= b.endAngle) {
+				toX = a.endDirX;
+				toY = a.endDirY;
+			} else {
+				toX = b.endDirX;
+				toY = b.endDirY;
+			}
+
+			double dirX = fromX + toX;
+			double dirY = fromY + toY;
+
+			double distanceA = distance(a, viewerX, viewerY, dirX, dirY);
+			double distanceB = distance(b, viewerX, viewerY, dirX, dirY);
+
+			// overlapping collinear pieces, e. g. room walls on the outer walls, keep their index order
+			if (Math.abs(distanceA - distanceB) <= DEPTH_EPSILON * Math.max(distanceA, distanceB))
+				return -1;
+
+			return distanceA < distanceB ? -1 : 1;
+		}
+	}
+
+}
@@ -0,0 +1,436 @@
+package LineofSight;
+
+import java.util.Arrays;
+
+/**
+ * Line of sight with rays which target the scene geometry instead of a uniform fan of scan lines. A ray is cast to
+ * every segment endpoint within range of the viewer and one slightly to each side of it, so the rays pass exactly
+ * through the corners and also see what lies behind them. The points where scene segments cross each other are
+ * corners as well, they are found once when the engine is created. Segments which cross the circle of the scan line
+ * length get their intersection points with the circle as targets.
+ *
+ * The targets are only collected from the segments which the index selects for the viewer, e. g. the ones in range.
+ * Indices which also cull hidden segments drop their targets as well; the rays to them would only add vertices on the
+ * segments in front of them.
+ *
+ * The rays are cast in angular order, so the hits form the visibility polygon. The number of rays depends on the
+ * geometry near the viewer instead of the scan line count. If the visible area is limited, additional rays
+ * approximate the arcs of the circle between the targets.
+ */
+public class EndpointRayEngine implements VisibilityEngine {
+
+	/**
+	 * Angle between the ray to an endpoint and the rays next to it
+	 */
+	static final double ANGLE_EPSILON = 1e-5;
+
+	/**
+	 * Maximum distance between the arc of the scan line circle and its polygon approximation
+	 */
+	static final double ARC_TOLERANCE = 0.25;
+
+	SegmentStore segments;
+	SegmentIndex index;
+
+	/**
+	 * Points where two scene segments cross, grouped by the lower segment number of the pair: the crossings of segment
+	 * i are crossingX/Y[crossingStart[i]] .. crossingX/Y[crossingStart[i+1]-1].
+	 */
+	int[] crossingStart;
+	double[] crossingX;
+	double[] crossingY;
+
+	/**
+	 * Ray angles of the current query, reused between queries
+	 */
+	double[] angles = new double[256];
+	int angleCount;
+
+	int rayCount;
+
+	/**
+	 * Segments in range of the viewer, if the index supports it
+	 */
+	SegmentCandidates candidates = new SegmentCandidates();
+
+	/**
+	 * @param segments
+	 *            the scene segments whose endpoints are targeted
+	 * @param index
+	 *            index over the scene segments used for casting the rays
+	 * @param cellSize
+	 *            cell size of the grid used for finding the crossing segments
+	 */
+	public EndpointRayEngine(SegmentStore segments, SegmentIndex index, double cellSize) {
+		this.segments = segments;
+		this.index = index;
+
+		findCrossings(cellSize);
+	}
+
+	/**
+	 * Find the points where the segments cross each other. Candidate pairs are the segments which share a grid cell; a
+	 * pair which shares multiple cells is stored once.
+	 */
+	private void findCrossings(double cellSize) {
+
+		SceneGrid grid = new SceneGrid(segments, cellSize);
+
+		// crossings of all cells, a pair may occur multiple times
+		int[] pairA = new int[64];
+		int[] pairB = new int[64];
+		double[] pointX = new double[64];
+		double[] pointY = new double[64];
+		int count = 0;
+
+		for (int cell = 0; cell < grid.cols * grid.rows; cell++) {
+
+			for (int i = grid.cellStart[cell]; i < grid.cellStart[cell + 1]; i++) {
+
+				int a = grid.cellLines[i];
+
+				for (int j = i + 1; j < grid.cellStart[cell + 1]; j++) {
+
+					int b = grid.cellLines[j];
+
+					double ax = segments.x2[a] - segments.x1[a];
+					double ay = segments.y2[a] - segments.y1[a];
+					double bx = segments.x2[b] - segments.x1[b];
+					double by = segments.y2[b] - segments.y1[b];
+
+					double denominator = ax * by - ay * bx;
+
+					if (denominator == 0)
+						continue;
+
+					double cx = segments.x1[b] - segments.x1[a];
+					double cy = segments.y1[b] - segments.y1[a];
+
+					double t = (cx * by - cy * bx) / denominator;
+					double u = (cx * ay - cy * ax) / denominator;
+
+					// touching segments meet at an endpoint, which is a target anyway
+					if (t <= 0 || t >= 1 || u <= 0 || u >= 1)
+						continue;
+
+					if (count == pairA.length) {
+						pairA = Arrays.copyOf(pairA, count * 2);
+						pairB = Arrays.copyOf(pairB, count * 2);
+						pointX = Arrays.copyOf(pointX, count * 2);
+						pointY = Arrays.copyOf(pointY, count * 2);
+					}
+
+					// the cells list their lines in ascending order, so a is the lower segment number
+					pairA[count] = a;
+					pairB[count] = b;
+					pointX[count] = segments.x1[a] + t * ax;
+					pointY[count] = segments.y1[a] + t * ay;
+					count++;
+				}
+			}
+		}
+
+		// group by the lower segment, skipping the pairs which have already been found in a previous cell
+		int[] partner = new int[segments.size];
+		Arrays.fill(partner, -1);
+
+		int[] first = new int[segments.size + 1];
+
+		for (int i = 0; i < count; i++) {
+			first[pairA[i] + 1]++;
+		}
+
+		for (int i = 0; i < segments.size; i++) {
+			first[i + 1] += first[i];
+		}
+
+		int[] order = new int[count];
+		int[] fill = Arrays.copyOf(first, segments.size);
+
+		for (int i = 0; i < count; i++) {
+			order[fill[pairA[i]]++] = i;
+		}
+
+		crossingStart = new int[segments.size + 1];
+		crossingX = new double[count];
+		crossingY = new double[count];
+
+		int crossingCount = 0;
+
+		for (int a = 0; a < segments.size; a++) {
+
+			crossingStart[a] = crossingCount;
+
+			for (int k = first[a]; k < first[a + 1]; k++) {
+
+				int i = order[k];
+
+				// the same pair always gives the same point
+				if (partner[pairB[i]] == a)
+					continue;
+
+				partner[pairB[i]] = a;
+
+				crossingX[crossingCount] = pointX[i];
+				crossingY[crossingCount] = pointY[i];
+				crossingCount++;
+			}
+		}
+
+		crossingStart[segments.size] = crossingCount;
+	}
+
+	/**
+	 * Calculate the visibility polygon of the given viewer. The polygon vertices are written into the given buffer in
+	 * counter clockwise order, starting at the ray which points in negative x direction.
+	 */
+	@Override
+	public void getVisibilityPolygon(double viewerX, double viewerY, double range, boolean limited, PolygonBuffer points) {
+
+		points.clear();
+
+		angleCount = 0;
+		rayCount = 0;
+
+		int hitCount = 0;
+
+		SegmentIndex viewerIndex = index.select(viewerX, viewerY, range, candidates);
+
+		collectTargets(viewerIndex, viewerX, viewerY, range);
+
+		if (limited) {
+
+			double arcStep = range > ARC_TOLERANCE ? 2 * Math.acos(1 - ARC_TOLERANCE / range) : Math.PI / 4;
+
+			for (double angle = -Math.PI; angle < Math.PI; angle += arcStep) {
+				addAngle(angle);
+			}
+		}
+
+		// Arrays.sort allocates a merge buffer for inputs with sorted runs, which the angles of the segment end points
+		// often are
+		sort(angles, 0, angleCount - 1);
+
+		double previousAngle = Double.NaN;
+
+		for (int i = 0; i < angleCount; i++) {
+
+			double angle = angles[i];
+
+			// shared endpoints give the same angle multiple times
+			if (angle == previousAngle)
+				continue;
+
+			previousAngle = angle;
+			rayCount++;
+
+			double dx = Math.cos(angle) * range;
+			double dy = Math.sin(angle) * range;
+
+			double t = viewerIndex.getClosestHit(viewerX, viewerY, dx, dy);
+
+			double x;
+			double y;
+
+			if (t != Double.POSITIVE_INFINITY) {
+				x = viewerX + t * dx;
+				y = viewerY + t * dy;
+				hitCount++;
+			}
+			// no intersection found => full scan line length
+			else if (limited) {
+				x = viewerX + dx;
+				y = viewerY + dy;
+			} else {
+				continue;
+			}
+
+			if (!points.isEmpty() && Math.abs(points.getLastX() - x) < 1e-9 && Math.abs(points.getLastY() - y) < 1e-9)
+				continue;
+
+			points.add(x, y);
+		}
+
+		VisibilityCounters.addRays(rayCount, hitCount);
+	}
+
+	/**
+	 * Add the angles of the rays to the segment endpoints and crossings within range and to the points where the
+	 * segments cross the circle of the given range. Only the candidates are visited if the index selected them.
+	 */
+	private void collectTargets(SegmentIndex viewerIndex, double viewerX, double viewerY, double range) {
+
+		double rangeSquared = range * range;
+
+		if (viewerIndex == candidates) {
+
+			for (int i = 0; i < candidates.size; i++) {
+				collectTargets(candidates.ids[i], viewerX, viewerY, rangeSquared);
+			}
+
+		} else {
+
+			for (int i = 0; i < segments.size; i++) {
+				collectTargets(i, viewerX, viewerY, rangeSquared);
+			}
+		}
+	}
+
+	/**
+	 * Add the targets of the given segment and the crossings stored with it. A crossing in range lies on both of its
+	 * segments, so both of them are candidates of a range culled index.
+	 */
+	private void collectTargets(int segment, double viewerX, double viewerY, double rangeSquared) {
+
+		for (int i = crossingStart[segment]; i < crossingStart[segment + 1]; i++) {
+
+			double x = crossingX[i] - viewerX;
+			double y = crossingY[i] - viewerY;
+
+			if (x * x + y * y <= rangeSquared) {
+				addTarget(x, y);
+			}
+		}
+
+		double ax = segments.x1[segment] - viewerX;
+		double ay = segments.y1[segment] - viewerY;
+		double bx = segments.x2[segment] - viewerX;
+		double by = segments.y2[segment] - viewerY;
+
+		boolean startInRange = ax * ax + ay * ay <= rangeSquared;
+		boolean endInRange = bx * bx + by * by <= rangeSquared;
+
+		if (startInRange) {
+			addTarget(ax, ay);
+		}
+
+		if (endInRange) {
+			addTarget(bx, by);
+		}
+
+		if (startInRange && endInRange)
+			return;
+
+		// intersections with the circle: solve |a + t * (b - a)| = range
+		double dx = bx - ax;
+		double dy = by - ay;
+
+		double qa = dx * dx + dy * dy;
+		double qb = 2 * (ax * dx + ay * dy);
+		double qc = ax * ax + ay * ay - rangeSquared;
+
+		double discriminant = qb * qb - 4 * qa * qc;
+
+		if (discriminant <= 0)
+			return;
+
+		double root = Math.sqrt(discriminant);
+
+		double t0 = (-qb - root) / (2 * qa);
+		double t1 = (-qb + root) / (2 * qa);
+
+		if (t0 > 0 && t0 < 1) {
+			addTarget(ax + t0 * dx, ay + t0 * dy);
+		}
+
+		if (t1 > 0 && t1 < 1) {
+			addTarget(ax + t1 * dx, ay + t1 * dy);
+		}
+	}
+
+	/**
+	 * Add the ray to the given point relative to the viewer and the rays next to it
+	 */
+	private void addTarget(double x, double y) {
+
+		// the viewer itself doesn't have a direction
+		if (x == 0 && y == 0)
+			return;
+
+		double angle = Math.atan2(y, x);
+
+		addAngle(angle - ANGLE_EPSILON);
+		addAngle(angle);
+		addAngle(angle + ANGLE_EPSILON);
+	}
+
+	/**
+	 * Add a ray angle, wrapped into [-PI, PI). -0 becomes 0, so that equal angles are sorted next to each other.
+	 */
+	private void addAngle(double angle) {
+
+		if (angle < -Math.PI) {
+			angle += 2 * Math.PI;
+		} else if (angle >= Math.PI) {
+			angle -= 2 * Math.PI;
+		}
+
+		angle += 0.0;
+
+		if (angleCount == angles.length) {
+			angles = Arrays.copyOf(angles, angleCount * 2);
+		}
+
+		angles[angleCount++] = angle;
+	}
+
+	/**
+	 * Sort the values in [lo, hi] in place: quicksort, with insertion sort for short ranges
+	 */
+	private static void sort(double[] values, int lo, int hi) {
+
+		while (hi - lo > 16) {
+
+			double pivot = values[(lo + hi) >>> 1];
+
+			int i = lo;
+			int j = hi;
+
+			while (i <= j) {
+
+				while (values[i] < pivot) {
+					i++;
+				}
+				while (values[j] > pivot) {
+					j--;
+				}
+
+				if (i <= j) {
+					double value = values[i];
+					values[i++] = values[j];
+					values[j--] = value;
+				}
+			}
+
+			// recurse into the smaller part, loop over the larger one
+			if (j - lo < hi - i) {
+				sort(values, lo, j);
+				lo = i;
+			} else {
+				sort(values, i, hi);
+				hi = j;
+			}
+		}
+
+		for (int i = lo + 1; i <= hi; i++) {
+
+			double value = values[i];
+
+			int j = i - 1;
+			while (j >= lo && values[j] > value) {
+				values[j + 1] = values[j];
+				j--;
+			}
+
+			values[j + 1] = value;
+		}
+	}
+
+	/**
+	 * Number of rays cast for the last polygon, including the ones without a vertex
+	 */
+	public int getRayCount() {
+		return rayCount;
+	}
+
+}
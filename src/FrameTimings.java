@@ -0,0 +1,85 @@
+package LineofSight;
+
+import java.util.Locale;
+
+/**
+ * Durations of the phases of a frame, with a latency histogram per phase. Averages hide the occasional slow frame, so
+ * the phases are reported with their median, 99th percentile and maximum.
+ *
+ * The phases are recorded on the application thread. The query runs on the visibility worker; its duration is
+ * measured there and recorded when the renderer takes over the result.
+ */
+public class FrameTimings {
+
+	public enum Phase {
+
+		QUERY("Query"),
+		STATIC_LAYER("Static Layer"),
+		SCAN_LINES("Scan Lines"),
+		SHAPE("Shape"),
+		POINTS("Points"),
+		FRAME("Frame");
+
+		private final String text;
+
+		Phase(String text) {
+			this.text = text;
+		}
+
+		public String toString() {
+			return text;
+		}
+	}
+
+	LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+
+	public FrameTimings() {
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+	}
+
+	public void record(Phase phase, long nanos) {
+		histograms[phase.ordinal()].record(nanos);
+	}
+
+	/**
+	 * Record the time since the given start, which is a value of System.nanoTime()
+	 */
+	public void recordSince(Phase phase, long startNanos) {
+		record(phase, System.nanoTime() - startNanos);
+	}
+
+	public LatencyHistogram getHistogram(Phase phase) {
+		return histograms[phase.ordinal()];
+	}
+
+	public void reset() {
+		for (LatencyHistogram histogram : histograms) {
+			histogram.reset();
+		}
+	}
+
+	/**
+	 * One line per phase: count, median, 99th percentile and maximum in milliseconds
+	 */
+	public String[] getLines() {
+
+		String[] lines = new String[histograms.length];
+
+		for (Phase phase : Phase.values()) {
+
+			LatencyHistogram histogram = getHistogram(phase);
+
+			lines[phase.ordinal()] = String.format(Locale.ROOT, "%-12s n %6d  p50 %7.3f  p99 %7.3f  max %7.3f ms", phase, histogram.getCount(), histogram.getValueAtPercentile(50) / 1_000_000.0, histogram.getValueAtPercentile(99) / 1_000_000.0, histogram.getMax() / 1_000_000.0);
+		}
+
+		return lines;
+	}
+
+	@Override
+	public String toString() {
+		return String.join(System.lineSeparator(), getLines());
+	}
+
+}
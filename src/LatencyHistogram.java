@@ -0,0 +1,115 @@
+package LineofSight;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of durations in nanoseconds with logarithmic buckets, in the style of HdrHistogram: every power of 2 is
+ * split into 32 linear sub-buckets, so a percentile is accurate to about 3 % over the whole range while the histogram
+ * has a fixed size and recording doesn't allocate. The maximum is tracked exactly.
+ *
+ * Not thread safe, the values have to be recorded and read on the same thread.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Values below this are counted exactly, above it per power of 2 in SUB_BUCKETS / 2 sub-buckets
+	 */
+	private static final int SUB_BUCKETS = 64;
+	private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+	private static final int SUB_BUCKET_BITS = 6;
+
+	private static final int BUCKET_COUNT = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+
+	long[] counts = new long[BUCKET_COUNT];
+
+	long count = 0;
+	long max = 0;
+	long total = 0;
+
+	/**
+	 * Add a duration, negative values are counted as 0
+	 */
+	public void record(long nanos) {
+
+		nanos = Math.max(0, nanos);
+
+		counts[index(nanos)]++;
+
+		count++;
+		total += nanos;
+		max = Math.max(max, nanos);
+	}
+
+	private static int index(long value) {
+
+		if (value < SUB_BUCKETS)
+			return (int) value;
+
+		// value >> shift lies in [HALF_SUB_BUCKETS, SUB_BUCKETS)
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+
+		return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) (value >> shift) - HALF_SUB_BUCKETS;
+	}
+
+	/**
+	 * Largest value which falls into the bucket
+	 */
+	private static long highestValue(int index) {
+
+		if (index < SUB_BUCKETS)
+			return index;
+
+		int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+		long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	/**
+	 * The value below or at which the given percentage of the recorded values lies, 0 if there aren't any
+	 *
+	 * @param percentile
+	 *            0 .. 100
+	 */
+	public long getValueAtPercentile(double percentile) {
+
+		if (count == 0)
+			return 0;
+
+		long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+
+		long cumulative = 0;
+
+		for (int i = 0; i < counts.length; i++) {
+
+			cumulative += counts[i];
+
+			if (cumulative >= target)
+				return Math.min(highestValue(i), max);
+		}
+
+		return max;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return count == 0 ? 0 : (double) total / count;
+	}
+
+	public void reset() {
+
+		Arrays.fill(counts, 0);
+
+		count = 0;
+		max = 0;
+		total = 0;
+	}
+
+}
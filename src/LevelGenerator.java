@@ -3,48 +3,103 @@ package LineofSight;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
-
-import javafx.geometry.BoundingBox;
-import javafx.geometry.Bounds;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class LevelGenerator {
 
-	Random rnd = new Random();
+	/**
+	 * Source of the scene versions, unique across all generators
+	 */
+	private static final AtomicLong VERSIONS = new AtomicLong();
+
+	Random rnd;
+
+	SegmentStore segments = null;
+	List<Rect> roomDimensions = null;
 
-	List<Line> sceneLines = null;
-	List<Bounds> roomDimensions = null;
+	/**
+	 * Rooms and their doors
+	 */
+	PortalGraph portalGraph = null;
+
+	/**
+	 * Version of the generated scene, changes with every generated level
+	 */
+	long version = 0;
 	
 	double maxRoomWidth = 200;
 	double maxRoomHeight = 200;
 
-	public LevelGenerator() {
-		generate();
+	/**
+	 * Level size
+	 */
+	double width;
+	double height;
+
+	/**
+	 * Size of the grid cells the rooms are snapped to
+	 */
+	double cellSize;
+
+	public LevelGenerator(double width, double height, double cellSize) {
+		this(width, height, cellSize, new Random());
+	}
+
+	/**
+	 * Generator with a fixed seed, i. e. the same parameters always result in the same level
+	 */
+	public LevelGenerator(double width, double height, double cellSize, long seed) {
+		this(width, height, cellSize, new Random(seed));
+	}
+
+	private LevelGenerator(double width, double height, double cellSize, Random rnd) {
+		this.width = width;
+		this.height = height;
+		this.cellSize = cellSize;
+		this.rnd = rnd;
 	}
 	
-	public List<Line> getLines() {
-		return sceneLines;
+	public SegmentStore getSegments() {
+		return segments;
 	}
 
-	public List<Bounds> getRoomDimensions() {
+	public List<Rect> getRoomDimensions() {
 		return roomDimensions;
 	}
 
-	public void generate() {
+	public PortalGraph getPortalGraph() {
+		return portalGraph;
+	}
+
+	public long getVersion() {
+		return version;
+	}
 
-		sceneLines = new ArrayList<>();
+	public void generate(int lineCount, int roomIterations) {
 
-		addRandomLines(Settings.get().getLineCount());
-		addRooms(Settings.get().getRoomIterations());
+		long start = System.nanoTime();
+
+		segments = new SegmentStore();
+		portalGraph = new PortalGraph();
+
+		addRandomLines(lineCount);
+		addRooms(roomIterations);
 		addOuterWalls();
 
+		version = VERSIONS.incrementAndGet();
+
+		VisibilityCounters.addLevel(System.nanoTime() - start, segments.size());
+
 	}
 
 	public void addRandomLines(int lineCount) {
 		// other lines
 		for (int i = 0; i < lineCount; i++) {
 
-			Line line = new Line(randomBoundedVector(), randomBoundedVector());
-			sceneLines.add(line);
+			PVector start = randomBoundedVector();
+			PVector end = randomBoundedVector();
+
+			segments.add(start.x, start.y, end.x, end.y);
 
 		}
 
@@ -53,17 +108,17 @@ public class LevelGenerator {
 	public void addOuterWalls() {
 
 		// outer walls
-		double w = Settings.get().getCanvasWidth();
-		double h = Settings.get().getCanvasHeight();
+		double w = width;
+		double h = height;
 		double minX = 0;
 		double minY = 0;
 		double maxX = minX + w;
 		double maxY = minY + h;
 
-		sceneLines.addAll(createWallSegments(minX, minY, maxX, minY, 1)); // north
-		sceneLines.addAll(createWallSegments(maxX, minY, maxX, maxY, 1)); // east
-		sceneLines.addAll(createWallSegments(maxX, maxY, minX, maxY, 1)); // south
-		sceneLines.addAll(createWallSegments(minX, maxY, minX, minY, 1)); // west
+		createWallSegments(minX, minY, maxX, minY, 1); // north
+		createWallSegments(maxX, minY, maxX, maxY, 1); // east
+		createWallSegments(maxX, maxY, minX, maxY, 1); // south
+		createWallSegments(minX, maxY, minX, minY, 1); // west
 
 	}
 
@@ -78,14 +133,12 @@ public class LevelGenerator {
 
 			double w = rnd.nextDouble() * maxRoomWidth;
 			double h = rnd.nextDouble() * maxRoomHeight;
-			double minX = rnd.nextDouble() * Settings.get().getCanvasWidth();
-			double minY = rnd.nextDouble() * Settings.get().getCanvasHeight();
+			double minX = rnd.nextDouble() * width;
+			double minY = rnd.nextDouble() * height;
 			double maxX = minX + w;
 			double maxY = minY + h;
 
 			// snap to grid
-			double cellSize = Settings.get().getCanvasWidth() / Settings.get().getHorizontalCellCount();
-
 			minX = ((int) (minX / cellSize)) * cellSize;
 			minY = ((int) (minY / cellSize)) * cellSize;
 			maxX = ((int) (maxX / cellSize)) * cellSize;
@@ -95,11 +148,11 @@ public class LevelGenerator {
 			if( minX == maxX || minY == maxY)
 				continue;
 			
-			Bounds roomBounds = new BoundingBox(minX, minY, maxX - minX, maxY - minY);
+			Rect roomBounds = new Rect(minX, minY, maxX, maxY);
 
 			// skip room if it overlaps another room
 			boolean overlaps = false;
-			for (Bounds bounds : roomDimensions) {
+			for (Rect bounds : roomDimensions) {
 				if (roomBounds.intersects(bounds)) {
 					overlaps = true;
 					break;
@@ -111,26 +164,21 @@ public class LevelGenerator {
 
 			roomDimensions.add(roomBounds);
 
-			List<Line> room = createRoom(minX, minY, maxX, maxY);
-
-			for (Line line : room) {
-				sceneLines.add(line);
-			}
+			createRoom(minX, minY, maxX, maxY);
 
 		}
 
 	}
 
-	public List<Line> createRoom(double minX, double minY, double maxX, double maxY) {
+	public void createRoom(double minX, double minY, double maxX, double maxY) {
 
-		List<Line> walls = new ArrayList<>();
+		int room = portalGraph.addRoom(new Rect(minX, minY, maxX, maxY));
 
-		walls.addAll(createWallSegments(minX, minY, maxX, minY, randomWallCount())); // north
-		walls.addAll(createWallSegments(maxX, minY, maxX, maxY, randomWallCount())); // east
-		walls.addAll(createWallSegments(maxX, maxY, minX, maxY, randomWallCount())); // south
-		walls.addAll(createWallSegments(minX, maxY, minX, minY, randomWallCount())); // west
+		createWallSegments(minX, minY, maxX, minY, randomWallCount(), room); // north
+		createWallSegments(maxX, minY, maxX, maxY, randomWallCount(), room); // east
+		createWallSegments(maxX, maxY, minX, maxY, randomWallCount(), room); // south
+		createWallSegments(minX, maxY, minX, minY, randomWallCount(), room); // west
 
-		return walls;
 	}
 
 	public int randomWallCount() {
@@ -148,50 +196,59 @@ public class LevelGenerator {
 
 	/**
 	 * Single wall with multiple segments, depending on nr. of walls. A wall
-	 * with 2 doors will have 3 walls.
+	 * with 2 doors will have 3 walls. The segments are added to the scene
+	 * segments.
 	 * 
 	 * @param minX
 	 * @param minY
 	 * @param maxX
 	 * @param maxY
 	 * @param walls
-	 * @return
 	 */
-	public List<Line> createWallSegments(double minX, double minY, double maxX, double maxY, int walls) {
-
-		List<Line> wallSegments = new ArrayList<>();
+	public void createWallSegments(double minX, double minY, double maxX, double maxY, int walls) {
+		createWallSegments(minX, minY, maxX, maxY, walls, -1);
+	}
 
-		PVector start = new PVector(minX, minY);
-		PVector end = new PVector(maxX, maxY);
+	/**
+	 * Wall of the given room; the doors are added to the portal graph. Walls which don't belong to a room (-1) don't
+	 * have any portals.
+	 */
+	private void createWallSegments(double minX, double minY, double maxX, double maxY, int walls, int room) {
 
 		// angle between the 2 vectors
-		PVector distance = PVector.sub(end, start);
-		double angle = Math.atan2(distance.y, distance.x);
+		double distanceX = maxX - minX;
+		double distanceY = maxY - minY;
+		double angle = Math.atan2(distanceY, distanceX);
 
 		int numSegments = walls * 2 - 1;
 
-		double dist = distance.mag();
+		double dist = Math.sqrt(distanceX * distanceX + distanceY * distanceY);
 		dist = dist / numSegments;
 
 		for (int i = 0; i < numSegments; i++) {
 
-			// skip every 2nd segment, it's a door
-			if (i % 2 == 1)
-				continue;
+			double startX = minX + Math.cos(angle) * dist * i;
+			double startY = minY + Math.sin(angle) * dist * i;
+			double endX = minX + Math.cos(angle) * dist * (i + 1);
+			double endY = minY + Math.sin(angle) * dist * (i + 1);
 
-			double startX = start.x + Math.cos(angle) * dist * i;
-			double startY = start.y + Math.sin(angle) * dist * i;
-			double endX = start.x + Math.cos(angle) * dist * (i + 1);
-			double endY = start.y + Math.sin(angle) * dist * (i + 1);
+			// every 2nd segment is a door
+			if (i % 2 == 1) {
+
+				if (room != -1) {
+					portalGraph.addDoor(room, startX, startY, endX, endY);
+				}
+
+				continue;
+			}
 
-			wallSegments.add(new Line(new PVector(startX, startY), new PVector(endX, endY)));
+			segments.add(startX, startY, endX, endY);
 		}
 
-		return wallSegments;
 	}
 
 	private PVector randomBoundedVector() {
-		return new PVector(rnd.nextDouble() * Settings.get().getCanvasWidth(), rnd.nextDouble() * Settings.get().getCanvasHeight());
+		return new PVector(rnd.nextDouble() * width, rnd.nextDouble() * height);
 	}
 
 }
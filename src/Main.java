@@ -1,18 +1,22 @@
 package LineofSight;
 
-import java.util.List;
+import java.nio.IntBuffer;
 import java.util.Random;
 
+import javax.management.JMException;
+
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.beans.value.ChangeListener;
-import javafx.geometry.Bounds;
 import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.ContextMenu;
 import javafx.scene.control.MenuItem;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.Pane;
@@ -20,6 +24,7 @@ import javafx.scene.paint.Color;
 import javafx.scene.paint.CycleMethod;
 import javafx.scene.paint.RadialGradient;
 import javafx.scene.paint.Stop;
+import javafx.scene.text.Font;
 import javafx.stage.Stage;
 
 /**
@@ -44,7 +49,58 @@ public class Main extends Application {
 
 	Scene scene;
 
-	List<Line> sceneLines;
+	SegmentStore sceneSegments;
+	
+	/**
+	 * Spatial index over the scene segments; the segment store itself for the brute force algorithm
+	 */
+	SegmentIndex segmentIndex;
+	
+	/**
+	 * Engine which calculates the visibility polygon, selected in the settings
+	 */
+	VisibilityEngine visibilityEngine;
+	
+	/**
+	 * Calculates the visibility polygon off the application thread, only if the viewer, the engine or the scene changed
+	 */
+	VisibilityWorker visibilityWorker = new VisibilityWorker();
+	
+	/**
+	 * State of the last painted frame. Frames without any change aren't painted again.
+	 */
+	long paintedSettingsRevision = -1;
+	double paintedWidth = -1;
+	double paintedHeight = -1;
+	
+	/**
+	 * State of the static layer on the background canvas: grid, room floors and scene lines. It's only painted again
+	 * if one of these changed.
+	 */
+	int staticCellCount = -1;
+	boolean staticEnvironmentVisible;
+	long staticLevelVersion = -1;
+	SegmentStore staticSegments;
+	double staticWidth = -1;
+	double staticHeight = -1;
+	
+	/**
+	 * Raster mask of the visibility polygon and the image which shows its pixels, recreated when the canvas size
+	 * changes
+	 */
+	VisibilityMask visibilityMask;
+	PixelBuffer<IntBuffer> maskBuffer;
+	WritableImage maskImage;
+	
+	/**
+	 * Duration per phase of the painted frames
+	 */
+	FrameTimings frameTimings = new FrameTimings();
+	
+	/**
+	 * Scan line directions, recreated when the scan line count changes
+	 */
+	RayDirections rayDirections = new RayDirections( Settings.get().getScanLineCount());
 	
 	/**
 	 * Current mouse location
@@ -53,7 +109,7 @@ public class Main extends Application {
 	
 	LevelGenerator levelGenerator;
 	
-	Algorithm algorithm = new Algorithm();
+	ParallelRayCaster parallelRayCaster = new ParallelRayCaster( Settings.get().getWorkerCount(), Settings.get().getChunkSize());
 	
 	@Override
 	public void start(Stage primaryStage) {
@@ -90,6 +146,13 @@ public class Main extends Application {
 		primaryStage.show();
 
 		
+		// workload counters for JMX tools
+		try {
+			VisibilityStats.register();
+		} catch( JMException e) {
+			e.printStackTrace();
+		}
+		
 		// add content
 		createObjects();
 
@@ -109,9 +172,53 @@ public class Main extends Application {
 
 	private void createObjects() {
 		
-		levelGenerator = new LevelGenerator();
+		double cellSize = Settings.get().getCanvasWidth() / Settings.get().getHorizontalCellCount();
+		
+		levelGenerator = new LevelGenerator( Settings.get().getCanvasWidth(), Settings.get().getCanvasHeight(), cellSize);
+		levelGenerator.generate( Settings.get().getLineCount(), Settings.get().getRoomIterations());
+		
+		prepareScene();
+	}
+	
+	/**
+	 * Take over the generated segments, reduced by the scene preprocessor if enabled, and create the index and the
+	 * engine for them.
+	 */
+	private void prepareScene() {
+		
+		sceneSegments = levelGenerator.getSegments();
+		
+		if( Settings.get().isOptimizeScene()) {
+			
+			ScenePreprocessor preprocessor = new ScenePreprocessor();
+			
+			sceneSegments = preprocessor.process( sceneSegments);
+		}
+		
+		// together with the level segment count the stats show how many segments the preprocessing removed
+		VisibilityCounters.setSceneSegmentCount( sceneSegments.size());
+		
+		createSegmentIndex();
+		
+		createVisibilityEngine();
+	}
+	
+	private void createSegmentIndex() {
+		
+		double cellSize = Settings.get().getCanvasWidth() / Settings.get().getHorizontalCellCount();
 		
-		sceneLines = levelGenerator.getLines();
+		segmentIndex = Settings.get().getSpatialIndex().createIndex( sceneSegments, levelGenerator.getPortalGraph(), cellSize);
+	}
+	
+	/**
+	 * Create the selected engine for the current scene. Needs to be called whenever the scene, the index or the scan
+	 * lines change.
+	 */
+	private void createVisibilityEngine() {
+		
+		double cellSize = Settings.get().getCanvasWidth() / Settings.get().getHorizontalCellCount();
+		
+		visibilityEngine = Settings.get().getVisibilityEngine().createEngine( sceneSegments, segmentIndex, rayDirections, parallelRayCaster, cellSize, Settings.get().getCoarseScanLineCount());
 	}
 	
 	
@@ -123,34 +230,76 @@ public class Main extends Application {
 			
 			FpsCounter fpsCounter = new FpsCounter();
 			
+			long overlayTime = 0;
+			
 			@Override
 			public void handle(long now) {
 
+				long frameStart = System.nanoTime();
+				long frameAllocated = VisibilityCounters.getThreadAllocatedBytes();
+				
 				// update fps
 				// ----------------------------
 				fpsCounter.update( now);
 
-				// paint background canvas
+				// get intersection points: post the current viewer and take the latest finished polygon, the
+				// calculation itself runs on the worker
 				// ----------------------------
+				visibilityWorker.request( visibilityEngine, levelGenerator.getVersion(), mouseStatus.x, mouseStatus.y, Settings.get().getScanLineLength(), Settings.get().isLimitToScanLineLength());
 				
-				// clear canvas. we don't use clearRect because we want a black background
-				backgroundGraphicsContext.setFill( Settings.get().getBackgroundColor());
-				backgroundGraphicsContext.fillRect(0, 0, backgroundCanvas.getWidth(), backgroundCanvas.getHeight());
-
-				// background
-				paintGrid( Settings.get().getGridColor());
+				boolean polygonChanged = visibilityWorker.update();
+				
+				if( polygonChanged) {
+					frameTimings.record( FrameTimings.Phase.QUERY, visibilityWorker.getResult().getNanos());
+				}
 
-				// paint foreground canvas
-				// ----------------------------
-				// draw depending on mouse button down
-				paintOnCanvas();
+				// skip painting if nothing changed since the last frame
+				boolean repaint = polygonChanged || Settings.get().getRevision() != paintedSettingsRevision || backgroundCanvas.getWidth() != paintedWidth || backgroundCanvas.getHeight() != paintedHeight;
+				
+				if( repaint) {
+					
+					// paint background canvas, only if the static layer changed
+					// ----------------------------
+					if( !isStaticLayerValid()) {
+						
+						long start = System.nanoTime();
+						paintStaticLayer();
+						frameTimings.recordSince( FrameTimings.Phase.STATIC_LAYER, start);
+					}
+	
+					// paint foreground canvas
+					// ----------------------------
+					// draw depending on mouse button down
+					paintOnCanvas();
+					
+					paintedSettingsRevision = Settings.get().getRevision();
+					paintedWidth = backgroundCanvas.getWidth();
+					paintedHeight = backgroundCanvas.getHeight();
+					
+					// idle frames don't paint anything, they would only hide the slow ones
+					frameTimings.recordSince( FrameTimings.Phase.FRAME, frameStart);
+					
+					VisibilityCounters.addFrame( VisibilityCounters.getThreadAllocatedBytes() - frameAllocated);
+				}
 				
 				// update overlays (statistics)
 				// ----------------------------
 
-				// show fps and other debug info
-				backgroundGraphicsContext.setFill(Color.BLACK);
-				backgroundGraphicsContext.fillText( "Fps: " + fpsCounter.getFrameRate(), 1, 10);
+				// show fps and other debug info; while idle only twice a second
+				if( repaint || now - overlayTime > 500_000_000L) {
+					
+					backgroundGraphicsContext.setFill( Settings.get().getBackgroundColor());
+					backgroundGraphicsContext.fillRect(0, 0, 100, 12);
+					
+					backgroundGraphicsContext.setFill(Color.BLACK);
+					backgroundGraphicsContext.fillText( "Fps: " + fpsCounter.getFrameRate(), 1, 10);
+					
+					if( Settings.get().isTimingsVisible()) {
+						paintTimings();
+					}
+					
+					overlayTime = now;
+				}
 
 			}
 		};
@@ -160,32 +309,68 @@ public class Main extends Application {
 	}
 	
 	
-	private void paintOnCanvas()  {
-
-		// clear canvas
+	/**
+	 * Phase timings below the fps. They are painted on the foreground canvas, so hiding them only needs a repaint of
+	 * the foreground.
+	 */
+	private void paintTimings() {
+		
 		GraphicsContext gc = foregroundGraphicsContext;
-		gc.clearRect(0, 0, foregroundCanvas.getWidth(), foregroundCanvas.getHeight());
 		
-		// scanlines
-		List<Line> scanLines = algorithm.createScanLines( mouseStatus.x, mouseStatus.y);
-
-		if( Settings.get().isDrawScanLines()) {
-
-			gc.setStroke(Color.BLUE.deriveColor(1, 1, 1, 0.3));
-			gc.setFill(Color.BLUE);
-			
-			for( Line line: scanLines) {
-				drawLine(line);
-			}
+		String[] lines = frameTimings.getLines();
+		
+		double lineHeight = 12;
+		
+		gc.save();
+		
+		gc.setFill( Settings.get().getBackgroundColor());
+		gc.fillRect(0, 12, 420, lines.length * lineHeight + 4);
+		
+		gc.setFont( Font.font( "Monospaced", 11));
+		gc.setFill(Color.BLACK);
+		
+		for( int i=0; i < lines.length; i++) {
+			gc.fillText( lines[i], 1, 12 + (i + 1) * lineHeight);
 		}
 		
+		gc.restore();
+	}
+	
+	/**
+	 * Check if the static layer on the background canvas shows the current grid, level and scene segments
+	 */
+	private boolean isStaticLayerValid() {
+		
+		return staticCellCount == Settings.get().getHorizontalCellCount() //
+				&& staticEnvironmentVisible == Settings.get().isEnvironmentVisible() //
+				&& staticLevelVersion == levelGenerator.getVersion() //
+				&& staticSegments == sceneSegments //
+				&& staticWidth == backgroundCanvas.getWidth() //
+				&& staticHeight == backgroundCanvas.getHeight();
+	}
+	
+	/**
+	 * Paint everything which doesn't depend on the viewer onto the background canvas: grid, room floors and scene
+	 * lines. With thousands of rooms that's more expensive than the visibility query, so it's painted once and kept
+	 * until the grid, the level or the canvas size changes.
+	 */
+	private void paintStaticLayer() {
+		
+		GraphicsContext gc = backgroundGraphicsContext;
+		
+		// clear canvas. we don't use clearRect because we want a black background
+		gc.setFill( Settings.get().getBackgroundColor());
+		gc.fillRect(0, 0, backgroundCanvas.getWidth(), backgroundCanvas.getHeight());
+
+		// background
+		paintGrid( Settings.get().getGridColor());
 
 		// environment
 		if( Settings.get().isEnvironmentVisible()) {
 
 			// room floor
 			gc.setFill(Color.LIGHTGREY.deriveColor(1, 1, 1, 0.3));
-			for( Bounds bounds: levelGenerator.getRoomDimensions()) {
+			for( Rect bounds: levelGenerator.getRoomDimensions()) {
 				gc.fillRect(bounds.getMinX(), bounds.getMinY(), bounds.getWidth(), bounds.getHeight());
 			}
 			
@@ -193,22 +378,115 @@ public class Main extends Application {
 			gc.setStroke(Color.BLACK);
 			gc.setFill(Color.BLACK);
 	
-			for( Line line: sceneLines) {
-				drawLine(line);
+			for( int i=0; i < sceneSegments.size(); i++) {
+				gc.strokeLine(sceneSegments.getStartX(i), sceneSegments.getStartY(i), sceneSegments.getEndX(i), sceneSegments.getEndY(i));
 			}
 		}
+		
+		staticCellCount = Settings.get().getHorizontalCellCount();
+		staticEnvironmentVisible = Settings.get().isEnvironmentVisible();
+		staticLevelVersion = levelGenerator.getVersion();
+		staticSegments = sceneSegments;
+		staticWidth = backgroundCanvas.getWidth();
+		staticHeight = backgroundCanvas.getHeight();
+	}
+	
+	/**
+	 * Scan convert the polygon into the raster mask and draw it. The mask pixels are the pixels of the image, so
+	 * there's no copy involved.
+	 */
+	private void paintMask( GraphicsContext gc, PolygonBuffer points) {
+		
+		int width = (int) Math.ceil( foregroundCanvas.getWidth());
+		int height = (int) Math.ceil( foregroundCanvas.getHeight());
+		
+		if( visibilityMask == null || visibilityMask.getWidth() != width || visibilityMask.getHeight() != height) {
+			
+			visibilityMask = new VisibilityMask( width, height);
+			
+			maskBuffer = new PixelBuffer<>( visibilityMask.getWidth(), visibilityMask.getHeight(), IntBuffer.wrap( visibilityMask.getPixels()), PixelFormat.getIntArgbPreInstance());
+			maskImage = new WritableImage( maskBuffer);
+		}
+		
+		visibilityMask.fill( points, toArgbPre( Color.GREEN.deriveColor(1, 1, 1, 0.7)));
+		
+		// the whole buffer changed
+		maskBuffer.updateBuffer( buffer -> null);
+		
+		gc.drawImage( maskImage, 0, 0);
+	}
+	
+	/**
+	 * The color as premultiplied ARGB pixel
+	 */
+	private static int toArgbPre( Color color) {
+		
+		int a = (int) Math.round( color.getOpacity() * 255);
+		int r = (int) Math.round( color.getRed() * color.getOpacity() * 255);
+		int g = (int) Math.round( color.getGreen() * color.getOpacity() * 255);
+		int b = (int) Math.round( color.getBlue() * color.getOpacity() * 255);
+		
+		return a << 24 | r << 16 | g << 8 | b;
+	}
+	
+	private void paintOnCanvas()  {
 
-		// intersections
+		// clear canvas
+		GraphicsContext gc = foregroundGraphicsContext;
+		gc.clearRect(0, 0, foregroundCanvas.getWidth(), foregroundCanvas.getHeight());
+		
+		// the latest polygon of the worker; the mouse may have moved on already, so the viewer of the polygon is painted
+		VisibilityWorker.Result result = visibilityWorker.getResult();
 		
-		// get intersection points
-		List<PVector> points = algorithm.getIntersectionPoints( scanLines, sceneLines);
+		double viewerX = result.getViewerX();
+		double viewerY = result.getViewerY();
+		
+		// highlight cell in which the mouse cursor resides; it follows the mouse, so it isn't part of the static layer
+		if(Settings.get().isHighlightGridCell()) {
+			
+			double cellSize = foregroundCanvas.getWidth() / Settings.get().getHorizontalCellCount();
+			
+			int col = (int) ( mouseStatus.getX() / cellSize);
+			int row = (int) ( mouseStatus.getY() / cellSize);
+			
+			gc.setFill(Color.LIGHTBLUE.deriveColor(1, 1, 1, 0.5));
+			gc.fillRect(col * cellSize, row * cellSize, cellSize, cellSize);
+			
+		}
+		
+		// scanlines
+		if( Settings.get().isDrawScanLines()) {
+
+			long start = System.nanoTime();
+			
+			gc.setStroke(Color.BLUE.deriveColor(1, 1, 1, 0.3));
+			gc.setFill(Color.BLUE);
+			
+			double length = Settings.get().getScanLineLength();
+			
+			for( int i=0; i < rayDirections.size(); i++) {
+				gc.strokeLine(viewerX, viewerY, viewerX + rayDirections.getCos(i) * length, viewerY + rayDirections.getSin(i) * length);
+			}
+			
+			frameTimings.recordSince( FrameTimings.Phase.SCAN_LINES, start);
+		}
+
+
+		// intersections
+		PolygonBuffer points = result.getPoints();
 		
 		// draw intersection shape
 		if( Settings.get().isDrawShape()) {
 
+			long start = System.nanoTime();
+			
 			gc.setStroke(Color.GREEN);
 
-			if( Settings.get().isGradientShapeFill()) {
+			if( Settings.get().isRasterMask()) {
+				
+				// the fill is the mask image
+				
+			} else if( Settings.get().isGradientShapeFill()) {
 				
 				Color LIGHT_GRADIENT_START = Color.YELLOW.deriveColor(1, 1, 1, 0.5);
 				Color LIGHT_GRADIENT_END = Color.TRANSPARENT;
@@ -228,15 +506,13 @@ public class Main extends Application {
 								
 			}
 			
-			int count = 0;
 			gc.beginPath();
-			for( PVector point: points) {
-				if( count == 0) {
-					gc.moveTo(point.x, point.y);
+			for( int i=0; i < points.size(); i++) {
+				if( i == 0) {
+					gc.moveTo(points.getX(i), points.getY(i));
 				} else {
-					gc.lineTo(point.x, point.y);
+					gc.lineTo(points.getX(i), points.getY(i));
 				}
-				count++;
 			}
 			gc.closePath();
 			
@@ -246,22 +522,31 @@ public class Main extends Application {
 			}
 			
 			// fill
-			gc.fill();
+			if( Settings.get().isRasterMask()) {
+				paintMask( gc, points);
+			} else {
+				gc.fill();
+			}
 
+			frameTimings.recordSince( FrameTimings.Phase.SHAPE, start);
 		} 
 
 		// draw intersection points
 		if( Settings.get().isDrawPoints()) {
 
+			long start = System.nanoTime();
+			
 			gc.setStroke(Color.RED);
 			gc.setFill(Color.RED.deriveColor(1, 1, 1, 0.5));
 
 			double w = 2;
 			double h = w;
-			for( PVector point: points) {
-				gc.strokeOval(point.x - w / 2, point.y - h / 2, w, h);
-				gc.fillOval(point.x - w / 2, point.y - h / 2, w, h);
+			for( int i=0; i < points.size(); i++) {
+				gc.strokeOval(points.getX(i) - w / 2, points.getY(i) - h / 2, w, h);
+				gc.fillOval(points.getX(i) - w / 2, points.getY(i) - h / 2, w, h);
 			}
+			
+			frameTimings.recordSince( FrameTimings.Phase.POINTS, start);
 		}
 		
 		// user
@@ -271,19 +556,10 @@ public class Main extends Application {
 			
 			double w = 5;
 			double h = w;
-			gc.fillOval(mouseStatus.x - w / 2, mouseStatus.y - h / 2, w, h);
-			gc.strokeOval(mouseStatus.x - w / 2, mouseStatus.y - h / 2, w, h);
+			gc.fillOval(viewerX - w / 2, viewerY - h / 2, w, h);
+			gc.strokeOval(viewerX - w / 2, viewerY - h / 2, w, h);
 		}
 	}
-		
-	
-	private void drawLine( Line line) {
-
-		GraphicsContext gc = foregroundGraphicsContext;
-		
-		gc.strokeLine(line.getStart().x, line.getStart().y, line.getEnd().x, line.getEnd().y);
-
-	}
 	
 
 	/**
@@ -311,7 +587,6 @@ public class Main extends Application {
 		
 		double horizontalCellCount = Settings.get().getHorizontalCellCount();
 		double cellSize = width / horizontalCellCount;
-		double verticalCellCount = height / cellSize;
 		
 		backgroundGraphicsContext.setStroke( color);
 		backgroundGraphicsContext.setLineWidth(1);
@@ -332,19 +607,6 @@ public class Main extends Application {
 			
 		}
 		
-		// highlight cell in which the mouse cursor resides
-		if(Settings.get().isHighlightGridCell()) {
-			
-			Color highlightColor = Color.LIGHTBLUE;
-			
-			int col = (int) ( horizontalCellCount / width * mouseStatus.getX());
-			int row = (int) ( verticalCellCount / height * mouseStatus.getY());
-			
-			backgroundGraphicsContext.setFill(highlightColor);
-			backgroundGraphicsContext.fillRect(col * cellSize, row * cellSize, cellSize, cellSize);
-			
-		}
-		
 	}
 	
 	/**
@@ -354,9 +616,26 @@ public class Main extends Application {
 		
 		// particle size
 		Settings.get().horizontalCellCountProperty().addListener((ChangeListener<Number>) (observable, oldValue, newValue) -> System.out.println( "Horizontal cell count: " + newValue));
+		Settings.get().horizontalCellCountProperty().addListener((ChangeListener<Number>) (observable, oldValue, newValue) -> {
+			createSegmentIndex();
+			createVisibilityEngine();
+		});
+		Settings.get().workerCountProperty().addListener((ChangeListener<Number>) (observable, oldValue, newValue) -> parallelRayCaster.setParallelism( newValue.intValue()));
+		Settings.get().chunkSizeProperty().addListener((ChangeListener<Number>) (observable, oldValue, newValue) -> parallelRayCaster.setChunkSize( newValue.intValue()));
+		Settings.get().spatialIndexProperty().addListener((ChangeListener<SpatialIndexType>) (observable, oldValue, newValue) -> {
+			createSegmentIndex();
+			createVisibilityEngine();
+		});
+		Settings.get().visibilityEngineProperty().addListener((ChangeListener<VisibilityEngineType>) (observable, oldValue, newValue) -> createVisibilityEngine());
+		Settings.get().scanLineCountProperty().addListener((ChangeListener<Number>) (observable, oldValue, newValue) -> {
+			rayDirections = new RayDirections( newValue.intValue());
+			createVisibilityEngine();
+		});
+		Settings.get().coarseScanLineCountProperty().addListener((ChangeListener<Number>) (observable, oldValue, newValue) -> createVisibilityEngine());
 		
 		Settings.get().lineCountProperty().addListener((ChangeListener<Number>) (observable, oldValue, newValue) -> createObjects());
 		Settings.get().roomIterationsProperty().addListener((ChangeListener<Number>) (observable, oldValue, newValue) -> createObjects());
+		Settings.get().optimizeSceneProperty().addListener((ChangeListener<Boolean>) (observable, oldValue, newValue) -> prepareScene());
 	}
 
 	/**
@@ -375,6 +654,15 @@ public class Main extends Application {
 		menuItem.setOnAction(e -> System.out.println( "Clicked"));
 		contextMenu.getItems().add( menuItem);
 		
+		// timings
+		menuItem = new MenuItem("Dump Timings");
+		menuItem.setOnAction(e -> System.out.println( frameTimings));
+		contextMenu.getItems().add( menuItem);
+		
+		menuItem = new MenuItem("Reset Timings");
+		menuItem.setOnAction(e -> frameTimings.reset());
+		contextMenu.getItems().add( menuItem);
+		
 		// context menu listener
 		node.setOnMousePressed(event -> {
 		    if (event.isSecondaryButtonDown()) {
@@ -383,6 +671,12 @@ public class Main extends Application {
 		});
 	}
 	
+	@Override
+	public void stop() {
+		visibilityWorker.shutdown();
+		parallelRayCaster.shutdown();
+	}
+	
 	public static void main(String[] args) {
 		launch(args);
 	}
@@ -0,0 +1,317 @@
+package LineofSight;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Casts the scan lines on a fork/join pool. The scan lines are split into chunks which are processed in parallel;
+ * each ray writes its result into its own slot of an indexed result array, so the polygon keeps the order of the scan
+ * lines without any synchronization.
+ *
+ * Many viewers, e. g. the agents of a simulation, are processed in parallel as a batch: the viewers are split into
+ * chunks and each viewer writes its polygon into its own buffer. All of them share the index and the scan line
+ * directions.
+ *
+ * The indices must be safe for concurrent queries, which is the case for the segment store, the grid and the BVH. The
+ * segments in range of a viewer are collected by the task which processes it, into the candidates of its worker thread.
+ */
+public class ParallelRayCaster {
+
+	/**
+	 * The algorithm doesn't have any state, so all tasks share it
+	 */
+	private static final Algorithm ALGORITHM = new Algorithm();
+
+	/**
+	 * Candidates and ray hit per worker thread, reused by all of its tasks. A task doesn't fork while it uses them.
+	 */
+	private static final ThreadLocal<SegmentCandidates> CANDIDATES = ThreadLocal.withInitial(SegmentCandidates::new);
+	private static final ThreadLocal<RayHit> RAY_HIT = ThreadLocal.withInitial(RayHit::new);
+
+	/**
+	 * Volatile since the settings change it on the application thread while the visibility worker queries
+	 */
+	volatile ForkJoinPool pool;
+
+	/**
+	 * Maximum number of scan lines per task
+	 */
+	volatile int chunkSize;
+
+	// result per scan line
+	double[] hitX = new double[0];
+	double[] hitY = new double[0];
+	boolean[] hit = new boolean[0];
+
+	public ParallelRayCaster(int parallelism, int chunkSize) {
+		pool = new ForkJoinPool(Math.max(1, parallelism));
+		setChunkSize(chunkSize);
+	}
+
+	/**
+	 * Change the number of workers. The current pool is shut down and replaced.
+	 */
+	public void setParallelism(int parallelism) {
+
+		parallelism = Math.max(1, parallelism);
+
+		if (parallelism == pool.getParallelism())
+			return;
+
+		// replace before shutting down, so that a query on another thread doesn't pick up the closed pool
+		ForkJoinPool previous = pool;
+		pool = new ForkJoinPool(parallelism);
+		previous.shutdown();
+	}
+
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = Math.max(1, chunkSize);
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Parallel version of Algorithm.getIntersectionPoints: the closest intersecting point per scan line, in scan line
+	 * order.
+	 *
+	 * @param startX
+	 * @param startY
+	 * @param directions
+	 * @param scanLineLength
+	 * @param limitToScanLineLength
+	 *            use the scan line end point if there's no intersection
+	 * @param index
+	 * @param hitSegments
+	 *            segment hit by each scan line the last time, -1 for none; updated with the new hits
+	 * @param points
+	 */
+	public void getIntersectionPoints(double startX, double startY, RayDirections directions, double scanLineLength, boolean limitToScanLineLength, SegmentIndex index, int[] hitSegments, PolygonBuffer points) {
+
+		int count = directions.size();
+
+		if (hit.length < count) {
+			hitX = new double[count];
+			hitY = new double[count];
+			hit = new boolean[count];
+		}
+
+		invoke(new CastTask(startX, startY, directions, scanLineLength, index, hitSegments, limitToScanLineLength, chunkSize, 0, count));
+
+		// collect the results in scan line order
+		points.clear();
+
+		for (int i = 0; i < count; i++) {
+			if (hit[i]) {
+				points.add(hitX[i], hitY[i]);
+			}
+		}
+
+	}
+
+	/**
+	 * Calculate the visibility polygons of many viewers in parallel. The polygon of viewer i is written into
+	 * polygons[i]; missing buffers are created, so repeated calls with the same buffers don't allocate anything apart
+	 * from the tasks.
+	 *
+	 * @param viewerX
+	 * @param viewerY
+	 * @param viewerCount
+	 *            number of viewers, i. e. the used part of the position arrays
+	 * @param directions
+	 * @param scanLineLength
+	 * @param limitToScanLineLength
+	 *            use the scan line end point if there's no intersection
+	 * @param index
+	 * @param polygons
+	 *            polygon per viewer, at least viewerCount entries
+	 */
+	public void getVisibilityPolygons(double[] viewerX, double[] viewerY, int viewerCount, RayDirections directions, double scanLineLength, boolean limitToScanLineLength, SegmentIndex index, PolygonBuffer[] polygons) {
+
+		// the chunk size limits the scan lines per task, i. e. a task has at least one viewer
+		int viewersPerTask = Math.max(1, chunkSize / Math.max(1, directions.size()));
+
+		invoke(new ViewerTask(viewerX, viewerY, directions, scanLineLength, index, limitToScanLineLength, polygons, viewersPerTask, 0, viewerCount));
+	}
+
+	/**
+	 * Run the task on the current pool. The settings can replace the pool and shut the old one down after a query has
+	 * read it. The old pool rejects the task if it has already been shut down. A task it has accepted is normally
+	 * completed, since a shutdown lets the accepted tasks finish. The pool can terminate anyway while the task is still
+	 * pending, e. g. if the shutdown found it quiescent right before the task was queued. The waiting caller then
+	 * cancels the task. In both cases the task is run again on the new pool.
+	 */
+	private void invoke(ForkJoinTask<?> task) {
+
+		while (true) {
+
+			ForkJoinPool current = pool;
+
+			try {
+
+				current.invoke(task);
+				return;
+
+			} catch (RejectedExecutionException | CancellationException e) {
+
+				// the caster itself has been shut down
+				if (pool == current)
+					throw e;
+
+				// a cancelled task may still be running on the old pool; it mustn't write into the results of the
+				// next run
+				current.awaitQuiescence(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+				task.reinitialize();
+			}
+		}
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Calculates the polygons of the viewers [from, to) or splits them in halves if there are more than chunkSize.
+	 */
+	private static class ViewerTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		double[] viewerX;
+		double[] viewerY;
+		RayDirections directions;
+		double scanLineLength;
+		SegmentIndex index;
+		boolean limitToScanLineLength;
+		PolygonBuffer[] polygons;
+		int chunkSize;
+		int from;
+		int to;
+
+		ViewerTask(double[] viewerX, double[] viewerY, RayDirections directions, double scanLineLength, SegmentIndex index, boolean limitToScanLineLength, PolygonBuffer[] polygons, int chunkSize, int from, int to) {
+			this.viewerX = viewerX;
+			this.viewerY = viewerY;
+			this.directions = directions;
+			this.scanLineLength = scanLineLength;
+			this.index = index;
+			this.limitToScanLineLength = limitToScanLineLength;
+			this.polygons = polygons;
+			this.chunkSize = chunkSize;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (to - from > chunkSize) {
+
+				int mid = (from + to) >>> 1;
+
+				invokeAll(new ViewerTask(viewerX, viewerY, directions, scanLineLength, index, limitToScanLineLength, polygons, chunkSize, from, mid),
+						new ViewerTask(viewerX, viewerY, directions, scanLineLength, index, limitToScanLineLength, polygons, chunkSize, mid, to));
+
+				return;
+			}
+
+			SegmentCandidates candidates = CANDIDATES.get();
+
+			for (int i = from; i < to; i++) {
+
+				if (polygons[i] == null) {
+					polygons[i] = new PolygonBuffer(directions.size());
+				}
+
+				SegmentIndex viewerIndex = index.select(viewerX[i], viewerY[i], scanLineLength, candidates);
+
+				ALGORITHM.getIntersectionPoints(viewerX[i], viewerY[i], directions, scanLineLength, limitToScanLineLength, viewerIndex, polygons[i]);
+			}
+		}
+	}
+
+	/**
+	 * Casts the scan lines [from, to) or splits them in halves if there are more than chunkSize.
+	 */
+	private class CastTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		double startX;
+		double startY;
+		RayDirections directions;
+		double scanLineLength;
+		SegmentIndex index;
+		int[] hitSegments;
+		boolean limitToScanLineLength;
+		int chunkSize;
+		int from;
+		int to;
+
+		CastTask(double startX, double startY, RayDirections directions, double scanLineLength, SegmentIndex index, int[] hitSegments, boolean limitToScanLineLength, int chunkSize, int from, int to) {
+			this.startX = startX;
+			this.startY = startY;
+			this.directions = directions;
+			this.scanLineLength = scanLineLength;
+			this.index = index;
+			this.hitSegments = hitSegments;
+			this.limitToScanLineLength = limitToScanLineLength;
+			this.chunkSize = chunkSize;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (to - from > chunkSize) {
+
+				int mid = (from + to) >>> 1;
+
+				invokeAll(new CastTask(startX, startY, directions, scanLineLength, index, hitSegments, limitToScanLineLength, chunkSize, from, mid),
+						new CastTask(startX, startY, directions, scanLineLength, index, hitSegments, limitToScanLineLength, chunkSize, mid, to));
+
+				return;
+			}
+
+			RayHit rayHit = RAY_HIT.get();
+
+			int hits = 0;
+
+			for (int i = from; i < to; i++) {
+
+				double dx = directions.cos[i] * scanLineLength;
+				double dy = directions.sin[i] * scanLineLength;
+
+				Algorithm.castCoherentRay(startX, startY, dx, dy, index, hitSegments, i, rayHit);
+
+				if (rayHit.isHit()) {
+					hitX[i] = startX + rayHit.t * dx;
+					hitY[i] = startY + rayHit.t * dy;
+					hit[i] = true;
+					hits++;
+				}
+				// no intersection found => full scan line length
+				else if (limitToScanLineLength) {
+					hitX[i] = startX + dx;
+					hitY[i] = startY + dy;
+					hit[i] = true;
+				} else {
+					hit[i] = false;
+				}
+			}
+
+			VisibilityCounters.addRays(to - from, hits);
+		}
+	}
+
+}
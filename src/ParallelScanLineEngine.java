@@ -0,0 +1,42 @@
+package LineofSight;
+
+import java.util.Arrays;
+
+/**
+ * Same as the scan line engine, but the scan lines are cast on the workers of the given ray caster.
+ */
+public class ParallelScanLineEngine implements VisibilityEngine {
+
+	ParallelRayCaster rayCaster;
+
+	SegmentIndex index;
+	RayDirections directions;
+
+	/**
+	 * Segment hit by each scan line in the previous query, -1 for none
+	 */
+	int[] hitSegments;
+
+	/**
+	 * Segments in range of the viewer, if the index supports it. Collected before the scan lines are cast, the workers
+	 * only read them.
+	 */
+	SegmentCandidates candidates = new SegmentCandidates();
+
+	public ParallelScanLineEngine(ParallelRayCaster rayCaster, SegmentIndex index, RayDirections directions) {
+		this.rayCaster = rayCaster;
+		this.index = index;
+		this.directions = directions;
+
+		hitSegments = new int[directions.size()];
+		Arrays.fill(hitSegments, -1);
+	}
+
+	@Override
+	public void getVisibilityPolygon(double viewerX, double viewerY, double range, boolean limited, PolygonBuffer points) {
+		SegmentIndex viewerIndex = index.select(viewerX, viewerY, range, candidates);
+
+		rayCaster.getIntersectionPoints(viewerX, viewerY, directions, range, limited, viewerIndex, hitSegments, points);
+	}
+
+}
@@ -0,0 +1,76 @@
+package LineofSight;
+
+import java.util.Arrays;
+
+/**
+ * Reusable vertex buffer for the visibility polygon. The arrays only grow, so once the buffer has reached the size of
+ * the largest polygon, filling it again doesn't allocate anything.
+ */
+public class PolygonBuffer {
+
+	double[] x;
+	double[] y;
+
+	int size = 0;
+
+	public PolygonBuffer() {
+		this(256);
+	}
+
+	public PolygonBuffer(int capacity) {
+
+		capacity = Math.max(1, capacity);
+
+		x = new double[capacity];
+		y = new double[capacity];
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public void add(double px, double py) {
+
+		if (size == x.length) {
+			ensureCapacity(size * 2);
+		}
+
+		x[size] = px;
+		y[size] = py;
+
+		size++;
+	}
+
+	public void ensureCapacity(int capacity) {
+
+		if (capacity > x.length) {
+			x = Arrays.copyOf(x, capacity);
+			y = Arrays.copyOf(y, capacity);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public double getX(int index) {
+		return x[index];
+	}
+
+	public double getY(int index) {
+		return y[index];
+	}
+
+	public double getLastX() {
+		return x[size - 1];
+	}
+
+	public double getLastY() {
+		return y[size - 1];
+	}
+
+}
@@ -0,0 +1,78 @@
+package LineofSight;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rooms and doors of a generated level. The rooms are the nodes of the graph, the doors are the portals. The rooms
+ * don't touch each other, so every door connects its room with the space outside of the rooms.
+ *
+ * Door i is the gap from (x1[i], y1[i]) to (x2[i], y2[i]) in a wall of room rooms[i].
+ */
+public class PortalGraph {
+
+	List<Rect> roomBounds = new ArrayList<>();
+
+	// door gaps
+	double[] x1 = new double[64];
+	double[] y1 = new double[64];
+	double[] x2 = new double[64];
+	double[] y2 = new double[64];
+
+	/**
+	 * Room per door
+	 */
+	int[] rooms = new int[64];
+
+	int doorCount = 0;
+
+	/**
+	 * Add a room
+	 *
+	 * @return the room number
+	 */
+	public int addRoom(Rect bounds) {
+
+		roomBounds.add(bounds);
+
+		return roomBounds.size() - 1;
+	}
+
+	public void addDoor(int room, double startX, double startY, double endX, double endY) {
+
+		if (doorCount == rooms.length) {
+			int capacity = rooms.length * 2;
+			x1 = Arrays.copyOf(x1, capacity);
+			y1 = Arrays.copyOf(y1, capacity);
+			x2 = Arrays.copyOf(x2, capacity);
+			y2 = Arrays.copyOf(y2, capacity);
+			rooms = Arrays.copyOf(rooms, capacity);
+		}
+
+		x1[doorCount] = startX;
+		y1[doorCount] = startY;
+		x2[doorCount] = endX;
+		y2[doorCount] = endY;
+		rooms[doorCount] = room;
+
+		doorCount++;
+	}
+
+	public int getRoomCount() {
+		return roomBounds.size();
+	}
+
+	public Rect getRoom(int room) {
+		return roomBounds.get(room);
+	}
+
+	public int getDoorCount() {
+		return doorCount;
+	}
+
+	public int getDoorRoom(int door) {
+		return rooms[door];
+	}
+
+}
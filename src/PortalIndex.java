@@ -0,0 +1,597 @@
+package LineofSight;
+
+import java.util.Arrays;
+
+/**
+ * Brute force index which uses the rooms and doors of the level to restrict the search to the segments which the
+ * viewer can see. A viewer inside a room sees the segments of the room and, through the doors, only what lies in the
+ * view frustums of the doors. The space outside of the rooms is entered through a door of the viewer's room; from
+ * there the rooms behind the doors which lie in the frustum are visited, with the frustum narrowed to their door.
+ * Since the rooms don't touch, every door leads outside, so the recursion ends with these rooms: leaving them again
+ * leads outside within a frustum which has already been visited.
+ *
+ * Per door of the viewer's room only the grid cells are visited which the frustum covers within the range; the rooms
+ * behind it are found through these cells as well, so a query doesn't depend on the total number of segments and
+ * doors. The frustums are conservative, so the hits are exactly the same as those of the segment store. Viewers
+ * outside of the rooms use the segments in range, same as the range culled index.
+ */
+public class PortalIndex implements SegmentIndex {
+
+	/**
+	 * Tolerance of the frustum test, so that rounding doesn't drop a segment which lies on the border of a frustum
+	 */
+	static final double FRUSTUM_TOLERANCE = 1e-7;
+
+	/**
+	 * Margin of the frustum bounds in which the grid cells are visited
+	 */
+	static final double BOUNDS_TOLERANCE = 1e-6;
+
+	SegmentStore segments;
+	PortalGraph graph;
+
+	/**
+	 * Segments which touch the rectangle of room i: roomSegments[roomStart[i]] .. roomSegments[roomStart[i+1]-1]
+	 */
+	int[] roomStart;
+	int[] roomSegments;
+
+	/**
+	 * Doors of room i: roomDoors[doorStart[i]] .. roomDoors[doorStart[i+1]-1]
+	 */
+	int[] doorStart;
+	int[] roomDoors;
+
+	/**
+	 * Room per segment if the segment lies completely inside of the room, -1 otherwise
+	 */
+	int[] interiorRoom;
+
+	/**
+	 * Room per grid cell, -1 for none. The rooms are snapped to the grid and don't touch, so every cell belongs to at
+	 * most one room.
+	 */
+	SceneGrid grid;
+	int[] cellRooms;
+
+	/**
+	 * Scratch state of the queries per thread, since the workers share the index
+	 */
+	private final ThreadLocal<Scratch> scratch;
+
+	/**
+	 * The segments and rooms found by a query so far and the frustum planes
+	 */
+	private static class Scratch {
+
+		/**
+		 * The frustum of the viewer's door followed by the one of a door it looks through
+		 */
+		double[] planes = new double[8];
+
+		/**
+		 * Found segments in finding order, and the mark number per segment of the store; a segment has been found if
+		 * its number equals the current mark
+		 */
+		int[] found = new int[256];
+		int foundCount;
+		int[] marks;
+		int mark;
+
+		/**
+		 * Visit number per room, a room has been visited within the current frustum if its number equals the current
+		 * visit
+		 */
+		int[] visits;
+		int visit;
+
+		Scratch(int segmentCount, int roomCount) {
+			marks = new int[segmentCount];
+			visits = new int[roomCount];
+		}
+
+		/**
+		 * Start a query, none of the segments has been found afterwards
+		 */
+		void clearMarks() {
+
+			foundCount = 0;
+
+			// restart the numbering before it overflows
+			if (++mark == Integer.MAX_VALUE) {
+				Arrays.fill(marks, 0);
+				mark = 1;
+			}
+		}
+
+		boolean isMarked(int segment) {
+			return marks[segment] == mark;
+		}
+
+		/**
+		 * Add the segment to the found ones if it hasn't been found yet
+		 */
+		void mark(int segment) {
+
+			if (marks[segment] == mark)
+				return;
+
+			marks[segment] = mark;
+
+			if (foundCount == found.length) {
+				found = Arrays.copyOf(found, foundCount * 2);
+			}
+
+			found[foundCount++] = segment;
+		}
+
+		/**
+		 * Start a frustum, none of the rooms has been visited afterwards
+		 */
+		void clearVisits() {
+
+			if (++visit == Integer.MAX_VALUE) {
+				Arrays.fill(visits, 0);
+				visit = 1;
+			}
+		}
+
+		/**
+		 * @return false if the room has already been visited since the last clearVisits
+		 */
+		boolean visit(int room) {
+
+			if (visits[room] == visit)
+				return false;
+
+			visits[room] = visit;
+
+			return true;
+		}
+	}
+
+	public PortalIndex(SegmentStore segments, PortalGraph graph, double cellSize) {
+
+		this.segments = segments;
+		this.graph = graph;
+
+		grid = new SceneGrid(segments, cellSize);
+
+		createRoomCells();
+		createRoomSegments();
+		createRoomDoors();
+
+		int segmentCount = segments.size;
+		int roomCount = graph.getRoomCount();
+
+		scratch = ThreadLocal.withInitial(() -> new Scratch(segmentCount, roomCount));
+	}
+
+	private void createRoomCells() {
+
+		cellRooms = new int[grid.cols * grid.rows];
+		Arrays.fill(cellRooms, -1);
+
+		for (int room = 0; room < graph.getRoomCount(); room++) {
+
+			Rect bounds = graph.getRoom(room);
+
+			int colStart = cell(bounds.minX, grid.minX, grid.cols);
+			int colEnd = cell(bounds.maxX, grid.minX, grid.cols);
+			int rowStart = cell(bounds.minY, grid.minY, grid.rows);
+			int rowEnd = cell(bounds.maxY, grid.minY, grid.rows);
+
+			for (int row = rowStart; row <= rowEnd; row++) {
+				for (int col = colStart; col <= colEnd; col++) {
+					cellRooms[row * grid.cols + col] = room;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Cell of a grid line, the room coordinates are multiples of the cell size
+	 */
+	private int cell(double coordinate, double min, int count) {
+		return Math.max(0, Math.min(count - 1, (int) Math.round((coordinate - min) / grid.cellSize)));
+	}
+
+	private void createRoomSegments() {
+
+		interiorRoom = new int[segments.size];
+		Arrays.fill(interiorRoom, -1);
+
+		roomStart = new int[graph.getRoomCount() + 1];
+		roomSegments = new int[64];
+
+		// a segment can be in multiple cells of a room, the stamp skips it after the first one
+		int[] stamps = new int[segments.size];
+		int count = 0;
+
+		for (int room = 0; room < graph.getRoomCount(); room++) {
+
+			Rect bounds = graph.getRoom(room);
+
+			// the walls lie on the cell borders, so rounding can put them into the neighboring cells
+			int colStart = Math.max(0, cell(bounds.minX, grid.minX, grid.cols) - 1);
+			int colEnd = Math.min(grid.cols - 1, cell(bounds.maxX, grid.minX, grid.cols) + 1);
+			int rowStart = Math.max(0, cell(bounds.minY, grid.minY, grid.rows) - 1);
+			int rowEnd = Math.min(grid.rows - 1, cell(bounds.maxY, grid.minY, grid.rows) + 1);
+
+			for (int row = rowStart; row <= rowEnd; row++) {
+				for (int col = colStart; col <= colEnd; col++) {
+
+					int cell = row * grid.cols + col;
+
+					for (int i = grid.cellStart[cell]; i < grid.cellStart[cell + 1]; i++) {
+
+						int segment = grid.cellLines[i];
+
+						if (stamps[segment] == room + 1)
+							continue;
+
+						stamps[segment] = room + 1;
+
+						double ax = segments.x1[segment];
+						double ay = segments.y1[segment];
+						double bx = segments.x2[segment];
+						double by = segments.y2[segment];
+
+						// the walls can be off by rounding errors, e. g. when the scene preprocessor merged them with
+						// the outer walls
+						if (SegmentPvs.distanceSquared(ax, ay, bx, by, bounds.minX, bounds.minY, bounds.maxX, bounds.maxY) > FRUSTUM_TOLERANCE * FRUSTUM_TOLERANCE)
+							continue;
+
+						if (count == roomSegments.length) {
+							roomSegments = Arrays.copyOf(roomSegments, count * 2);
+						}
+
+						roomSegments[count++] = segment;
+
+						if (isInside(bounds, ax, ay) && isInside(bounds, bx, by)) {
+							interiorRoom[segment] = room;
+						}
+					}
+				}
+			}
+
+			roomStart[room + 1] = count;
+		}
+	}
+
+	private void createRoomDoors() {
+
+		int roomCount = graph.getRoomCount();
+		int doorCount = graph.getDoorCount();
+
+		// counting sort by room
+		doorStart = new int[roomCount + 1];
+
+		for (int door = 0; door < doorCount; door++) {
+			doorStart[graph.rooms[door] + 1]++;
+		}
+
+		for (int room = 0; room < roomCount; room++) {
+			doorStart[room + 1] += doorStart[room];
+		}
+
+		roomDoors = new int[doorCount];
+
+		int[] fill = Arrays.copyOf(doorStart, roomCount);
+
+		for (int door = 0; door < doorCount; door++) {
+			roomDoors[fill[graph.rooms[door]]++] = door;
+		}
+	}
+
+	/**
+	 * Check if the point lies strictly inside of the room, i. e. not on its walls
+	 */
+	private static boolean isInside(Rect bounds, double x, double y) {
+		return x > bounds.minX && x < bounds.maxX && y > bounds.minY && y < bounds.maxY;
+	}
+
+	/**
+	 * The room which contains the viewer, -1 if it isn't inside of a room
+	 */
+	public int getRoom(double x, double y) {
+
+		int col = (int) Math.floor((x - grid.minX) / grid.cellSize);
+		int row = (int) Math.floor((y - grid.minY) / grid.cellSize);
+
+		if (col < 0 || col >= grid.cols || row < 0 || row >= grid.rows)
+			return -1;
+
+		int room = cellRooms[row * grid.cols + col];
+
+		if (room == -1 || !isInside(graph.getRoom(room), x, y))
+			return -1;
+
+		return room;
+	}
+
+	@Override
+	public SegmentIndex select(double viewerX, double viewerY, double range, SegmentCandidates candidates) {
+
+		int room = getRoom(viewerX, viewerY);
+
+		if (room == -1) {
+			candidates.collect(grid, viewerX, viewerY, range);
+			return candidates;
+		}
+
+		Scratch query = scratch.get();
+
+		query.clearMarks();
+
+		// a little more than the range, so that rounding doesn't drop a segment which a scan line still hits at its end
+		double limit = range * (1 + 1e-9) + 1e-9;
+
+		// the viewer's room
+		for (int i = roomStart[room]; i < roomStart[room + 1]; i++) {
+
+			int segment = roomSegments[i];
+
+			if (isInRange(segments.x1[segment], segments.y1[segment], segments.x2[segment], segments.y2[segment], viewerX, viewerY, limit)) {
+				query.mark(segment);
+			}
+		}
+
+		// the frustums of the doors in range
+		double[] planes = query.planes;
+
+		for (int i = doorStart[room]; i < doorStart[room + 1]; i++) {
+
+			int door = roomDoors[i];
+
+			if (isInRange(graph.x1[door], graph.y1[door], graph.x2[door], graph.y2[door], viewerX, viewerY, limit) && setPlanes(planes, 0, door, viewerX, viewerY)) {
+				markFrustum(room, door, viewerX, viewerY, limit, query);
+			}
+		}
+
+		// in the order of the store
+		Arrays.sort(query.found, 0, query.foundCount);
+
+		candidates.collect(segments, query.found, 0, query.foundCount);
+
+		return candidates;
+	}
+
+	/**
+	 * Mark the segments outside of the viewer's room which lie in the frustum of the given door within the range. The
+	 * planes of the frustum are planes[0..3]. Only the grid cells within the bounds of the frustum beyond the door are
+	 * visited: the outside segments in these cells are tested against the frustum, the rooms in these cells are
+	 * looked into through their doors.
+	 */
+	private void markFrustum(int room, int door, double viewerX, double viewerY, double limit, Scratch query) {
+
+		double[] planes = query.planes;
+
+		double px = graph.x1[door] - viewerX;
+		double py = graph.y1[door] - viewerY;
+		double qx = graph.x2[door] - viewerX;
+		double qy = graph.y2[door] - viewerY;
+
+		// counter clockwise from p to q
+		if (px * qy - py * qx < 0) {
+			double tmp = px;
+			px = qx;
+			qx = tmp;
+			tmp = py;
+			py = qy;
+			qy = tmp;
+		}
+
+		// bounds of the frustum beyond the door: the door, the ends of the frustum borders at the range and the points
+		// of the arc in the axis directions
+		double scaleP = limit / Math.hypot(px, py);
+		double scaleQ = limit / Math.hypot(qx, qy);
+
+		double minX = Math.min(Math.min(px, qx), Math.min(px * scaleP, qx * scaleQ));
+		double minY = Math.min(Math.min(py, qy), Math.min(py * scaleP, qy * scaleQ));
+		double maxX = Math.max(Math.max(px, qx), Math.max(px * scaleP, qx * scaleQ));
+		double maxY = Math.max(Math.max(py, qy), Math.max(py * scaleP, qy * scaleQ));
+
+		if (isBetween(px, py, 1, 0, qx, qy)) {
+			maxX = limit;
+		}
+		if (isBetween(px, py, 0, 1, qx, qy)) {
+			maxY = limit;
+		}
+		if (isBetween(px, py, -1, 0, qx, qy)) {
+			minX = -limit;
+		}
+		if (isBetween(px, py, 0, -1, qx, qy)) {
+			minY = -limit;
+		}
+
+		// the tolerance widens the frustum, and a segment on a cell border may have been put into the neighboring cell
+		int colStart = clamp(Math.floor((viewerX + minX - BOUNDS_TOLERANCE - grid.minX) / grid.cellSize), grid.cols);
+		int colEnd = clamp(Math.floor((viewerX + maxX + BOUNDS_TOLERANCE - grid.minX) / grid.cellSize), grid.cols);
+		int rowStart = clamp(Math.floor((viewerY + minY - BOUNDS_TOLERANCE - grid.minY) / grid.cellSize), grid.rows);
+		int rowEnd = clamp(Math.floor((viewerY + maxY + BOUNDS_TOLERANCE - grid.minY) / grid.cellSize), grid.rows);
+
+		query.clearVisits();
+
+		for (int row = rowStart; row <= rowEnd; row++) {
+			for (int col = colStart; col <= colEnd; col++) {
+
+				int cell = row * grid.cols + col;
+
+				int other = cellRooms[cell];
+
+				if (other != -1 && other != room && query.visit(other)) {
+					markRoom(other, viewerX, viewerY, limit, query);
+				}
+
+				for (int i = grid.cellStart[cell]; i < grid.cellStart[cell + 1]; i++) {
+
+					int segment = grid.cellLines[i];
+
+					// the segments inside of rooms are only seen through their doors
+					if (interiorRoom[segment] != -1 || query.isMarked(segment))
+						continue;
+
+					if (isInFrustum(segments.x1[segment] - viewerX, segments.y1[segment] - viewerY, segments.x2[segment] - viewerX, segments.y2[segment] - viewerY, planes, 0, 4, limit)) {
+						query.mark(segment);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Mark the segments inside of the other room which lie in the frustum planes[0..3] narrowed to one of the doors of
+	 * the room
+	 */
+	private void markRoom(int other, double viewerX, double viewerY, double limit, Scratch query) {
+
+		double[] planes = query.planes;
+
+		for (int j = doorStart[other]; j < doorStart[other + 1]; j++) {
+
+			int door = roomDoors[j];
+
+			if (!isInFrustum(graph.x1[door] - viewerX, graph.y1[door] - viewerY, graph.x2[door] - viewerX, graph.y2[door] - viewerY, planes, 0, 4, limit))
+				continue;
+
+			// the frustum narrowed to the door
+			if (!setPlanes(planes, 4, door, viewerX, viewerY))
+				continue;
+
+			for (int i = roomStart[other]; i < roomStart[other + 1]; i++) {
+
+				int segment = roomSegments[i];
+
+				// the walls and segments which leave the room are outside segments
+				if (interiorRoom[segment] != other || query.isMarked(segment))
+					continue;
+
+				if (isInFrustum(segments.x1[segment] - viewerX, segments.y1[segment] - viewerY, segments.x2[segment] - viewerX, segments.y2[segment] - viewerY, planes, 0, 8, limit)) {
+					query.mark(segment);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check if the direction e lies between p and q, counter clockwise from p and less than 180 degrees away
+	 */
+	private static boolean isBetween(double px, double py, double ex, double ey, double qx, double qy) {
+		return px * ey - py * ex >= 0 && ex * qy - ey * qx >= 0;
+	}
+
+	private static int clamp(double cell, int count) {
+		return (int) Math.max(0, Math.min(count - 1, cell));
+	}
+
+	/**
+	 * Set the two planes of the frustum from the viewer through the given door at the given offset. A plane is the
+	 * normal of a frustum border, pointing inwards.
+	 *
+	 * @return false if the viewer lies on the line of the door, i. e. there's no frustum
+	 */
+	private boolean setPlanes(double[] planes, int offset, int door, double viewerX, double viewerY) {
+
+		double px = graph.x1[door] - viewerX;
+		double py = graph.y1[door] - viewerY;
+		double qx = graph.x2[door] - viewerX;
+		double qy = graph.y2[door] - viewerY;
+
+		double cross = px * qy - py * qx;
+
+		if (cross == 0)
+			return false;
+
+		// counter clockwise from p to q
+		if (cross < 0) {
+			double tmp = px;
+			px = qx;
+			qx = tmp;
+			tmp = py;
+			py = qy;
+			qy = tmp;
+		}
+
+		double lengthP = Math.hypot(px, py);
+		double lengthQ = Math.hypot(qx, qy);
+
+		// left of p and right of q
+		planes[offset] = -py / lengthP;
+		planes[offset + 1] = px / lengthP;
+		planes[offset + 2] = qy / lengthQ;
+		planes[offset + 3] = -qx / lengthQ;
+
+		return true;
+	}
+
+	/**
+	 * Check if the segment a-b, relative to the viewer, intersects the frustum given by the planes within the limit. The
+	 * segment is clipped against each plane, it intersects if anything is left which comes closer to the viewer than
+	 * the limit. Every point of a segment which a scan line can hit lies in the frustum and in range.
+	 */
+	private static boolean isInFrustum(double ax, double ay, double bx, double by, double[] planes, int offset, int length, double limit) {
+
+		double t0 = 0;
+		double t1 = 1;
+
+		for (int i = offset; i < offset + length; i += 2) {
+
+			double fa = planes[i] * ax + planes[i + 1] * ay + FRUSTUM_TOLERANCE;
+			double fb = planes[i] * bx + planes[i + 1] * by + FRUSTUM_TOLERANCE;
+
+			if (fa < 0 && fb < 0)
+				return false;
+
+			if (fa < 0) {
+				t0 = Math.max(t0, fa / (fa - fb));
+			} else if (fb < 0) {
+				t1 = Math.min(t1, fa / (fa - fb));
+			}
+
+			if (t0 > t1)
+				return false;
+		}
+
+		double dx = bx - ax;
+		double dy = by - ay;
+
+		return isInRange(ax + t0 * dx, ay + t0 * dy, ax + t1 * dx, ay + t1 * dy, 0, 0, limit);
+	}
+
+	/**
+	 * Check if the segment comes closer to the viewer than the given limit
+	 */
+	private static boolean isInRange(double ax, double ay, double bx, double by, double viewerX, double viewerY, double limit) {
+
+		ax -= viewerX;
+		ay -= viewerY;
+
+		double dx = bx - viewerX - ax;
+		double dy = by - viewerY - ay;
+
+		double lengthSquared = dx * dx + dy * dy;
+		double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, -(ax * dx + ay * dy) / lengthSquared));
+
+		double px = ax + t * dx;
+		double py = ay + t * dy;
+
+		return px * px + py * py <= limit * limit;
+	}
+
+	@Override
+	public double getClosestHit(double startX, double startY, double dx, double dy) {
+		return segments.getClosestHit(startX, startY, dx, dy);
+	}
+
+	@Override
+	public boolean getClosestHit(double startX, double startY, double dx, double dy, RayHit hit) {
+		return segments.getClosestHit(startX, startY, dx, dy, hit);
+	}
+
+	@Override
+	public double getHit(int segment, double startX, double startY, double dx, double dy) {
+		return segments.getHit(segment, startX, startY, dx, dy);
+	}
+
+}
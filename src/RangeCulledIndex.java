@@ -0,0 +1,58 @@
+package LineofSight;
+
+/**
+ * Brute force index which restricts the search to the segments in range of the viewer. The candidates are collected
+ * once per viewer from the grid cells around the viewer, the scan lines then only test those instead of the whole
+ * scene. Queries without a viewer test all segments, same as the segment store.
+ *
+ * The candidates aren't clipped to the circle. A scan line is never longer than the range, so it can only hit the part
+ * of a candidate inside the circle anyway. Clipped end points would be rounded, and the hits would no longer be bit
+ * identical to those of the store.
+ */
+public class RangeCulledIndex implements SegmentIndex {
+
+	SegmentStore segments;
+
+	/**
+	 * Grid for finding the segments near the viewer
+	 */
+	SceneGrid grid;
+
+	/**
+	 * @param segments
+	 * @param cellSize
+	 *            cell size of the grid used for collecting the segments in range
+	 */
+	public RangeCulledIndex(SegmentStore segments, double cellSize) {
+		this(segments, new SceneGrid(segments, cellSize));
+	}
+
+	public RangeCulledIndex(SegmentStore segments, SceneGrid grid) {
+		this.segments = segments;
+		this.grid = grid;
+	}
+
+	@Override
+	public SegmentIndex select(double viewerX, double viewerY, double range, SegmentCandidates candidates) {
+
+		candidates.collect(grid, viewerX, viewerY, range);
+
+		return candidates;
+	}
+
+	@Override
+	public double getClosestHit(double startX, double startY, double dx, double dy) {
+		return segments.getClosestHit(startX, startY, dx, dy);
+	}
+
+	@Override
+	public boolean getClosestHit(double startX, double startY, double dx, double dy, RayHit hit) {
+		return segments.getClosestHit(startX, startY, dx, dy, hit);
+	}
+
+	@Override
+	public double getHit(int segment, double startX, double startY, double dx, double dy) {
+		return segments.getHit(segment, startX, startY, dx, dy);
+	}
+
+}
@@ -0,0 +1,66 @@
+package LineofSight;
+
+/**
+ * Unit directions of the scan lines. The angles only depend on the scan line count, so they are calculated once per
+ * count instead of every frame. Scan line i goes from the viewer to viewer + (cos[i], sin[i]) * length.
+ */
+public class RayDirections {
+
+	final int scanLineCount;
+
+	final double[] cos;
+	final double[] sin;
+
+	final int count;
+
+	/**
+	 * Same sweep as Algorithm.createScanLines: a full circle in steps of PI / scanLineCount.
+	 */
+	public RayDirections(int scanLineCount) {
+
+		this.scanLineCount = scanLineCount;
+
+		double angleStart = 0;
+		double angleEnd = Math.PI * 2;
+		double step = Math.PI / scanLineCount;
+
+		int n = 0;
+		for (double angle = angleStart; angle < angleEnd; angle += step) {
+			n++;
+		}
+
+		count = n;
+		cos = new double[n];
+		sin = new double[n];
+
+		int i = 0;
+		for (double angle = angleStart; angle < angleEnd; angle += step) {
+			cos[i] = Math.cos(angle);
+			sin[i] = Math.sin(angle);
+			i++;
+		}
+	}
+
+	/**
+	 * The scan line count the directions were created for
+	 */
+	public int getScanLineCount() {
+		return scanLineCount;
+	}
+
+	/**
+	 * Number of rays
+	 */
+	public int size() {
+		return count;
+	}
+
+	public double getCos(int index) {
+		return cos[index];
+	}
+
+	public double getSin(int index) {
+		return sin[index];
+	}
+
+}
@@ -0,0 +1,38 @@
+package LineofSight;
+
+/**
+ * Closest hit of a ray: the ray parameter t and the number of the hit segment within the index which found it.
+ * Reused for all rays of a query, so that the queries don't allocate anything.
+ */
+public class RayHit {
+
+	double t = Double.POSITIVE_INFINITY;
+
+	int segment = -1;
+
+	/**
+	 * No hit, i. e. the next query is unbounded
+	 */
+	public void clear() {
+		t = Double.POSITIVE_INFINITY;
+		segment = -1;
+	}
+
+	public void set(double t, int segment) {
+		this.t = t;
+		this.segment = segment;
+	}
+
+	public double getT() {
+		return t;
+	}
+
+	public int getSegment() {
+		return segment;
+	}
+
+	public boolean isHit() {
+		return segment >= 0;
+	}
+
+}
@@ -0,0 +1,51 @@
+package LineofSight;
+
+/**
+ * Axis aligned rectangle. Plain replacement for the JavaFX bounds, so that the level can be used without JavaFX.
+ */
+public class Rect {
+
+	double minX;
+	double minY;
+	double maxX;
+	double maxY;
+
+	public Rect(double minX, double minY, double maxX, double maxY) {
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+	}
+
+	public double getMinX() {
+		return minX;
+	}
+
+	public double getMinY() {
+		return minY;
+	}
+
+	public double getMaxX() {
+		return maxX;
+	}
+
+	public double getMaxY() {
+		return maxY;
+	}
+
+	public double getWidth() {
+		return maxX - minX;
+	}
+
+	public double getHeight() {
+		return maxY - minY;
+	}
+
+	/**
+	 * Check if the rectangles overlap. Same as for the JavaFX bounds, rectangles which only touch each other intersect.
+	 */
+	public boolean intersects(Rect other) {
+		return other.maxX >= minX && other.maxY >= minY && other.minX <= maxX && other.minY <= maxY;
+	}
+
+}
@@ -0,0 +1,45 @@
+package LineofSight;
+
+import java.util.Arrays;
+
+/**
+ * Brute force line of sight: cast the scan lines and use the closest intersection of each of them. The intersection
+ * tests are done by the given index, the segment store itself tests all scene lines.
+ *
+ * The engine remembers the segment hit by each scan line, so the next query of a nearby viewer can start with it.
+ */
+public class ScanLineEngine implements VisibilityEngine {
+
+	Algorithm algorithm = new Algorithm();
+
+	SegmentIndex index;
+	RayDirections directions;
+
+	/**
+	 * Segment hit by each scan line in the previous query, -1 for none
+	 */
+	int[] hitSegments;
+
+	RayHit hit = new RayHit();
+
+	/**
+	 * Segments in range of the viewer, if the index supports it
+	 */
+	SegmentCandidates candidates = new SegmentCandidates();
+
+	public ScanLineEngine(SegmentIndex index, RayDirections directions) {
+		this.index = index;
+		this.directions = directions;
+
+		hitSegments = new int[directions.size()];
+		Arrays.fill(hitSegments, -1);
+	}
+
+	@Override
+	public void getVisibilityPolygon(double viewerX, double viewerY, double range, boolean limited, PolygonBuffer points) {
+		SegmentIndex viewerIndex = index.select(viewerX, viewerY, range, candidates);
+
+		algorithm.getIntersectionPoints(viewerX, viewerY, directions, range, limited, viewerIndex, hitSegments, hit, points);
+	}
+
+}
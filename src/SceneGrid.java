@@ -0,0 +1,270 @@
+package LineofSight;
+
+/**
+ * Uniform grid over the scene lines. Every cell keeps the indices of the lines that pass through it, so a ray only
+ * has to test the lines of the cells it crosses instead of the whole scene.
+ *
+ * The cells are stored in compressed form: the lines of cell i are cellLines[cellStart[i]] .. cellLines[cellStart[i+1]-1].
+ */
+public class SceneGrid implements SegmentIndex {
+
+	SegmentStore segments;
+
+	double cellSize;
+
+	double minX;
+	double minY;
+	double maxX;
+	double maxY;
+
+	int cols;
+	int rows;
+
+	int[] cellStart;
+	int[] cellLines;
+
+	public SceneGrid(SegmentStore segments, double cellSize) {
+
+		this.segments = segments;
+		this.cellSize = cellSize;
+
+		build();
+	}
+
+	private void build() {
+
+		if (segments.isEmpty()) {
+			cols = 0;
+			rows = 0;
+			cellStart = new int[1];
+			cellLines = new int[0];
+			return;
+		}
+
+		// grid bounds, aligned to the cell size so that the cells match the painted grid
+		double x0 = Double.MAX_VALUE;
+		double y0 = Double.MAX_VALUE;
+		double x1 = -Double.MAX_VALUE;
+		double y1 = -Double.MAX_VALUE;
+
+		for (int i = 0; i < segments.size; i++) {
+			x0 = Math.min(x0, Math.min(segments.x1[i], segments.x2[i]));
+			y0 = Math.min(y0, Math.min(segments.y1[i], segments.y2[i]));
+			x1 = Math.max(x1, Math.max(segments.x1[i], segments.x2[i]));
+			y1 = Math.max(y1, Math.max(segments.y1[i], segments.y2[i]));
+		}
+
+		minX = Math.floor(x0 / cellSize) * cellSize;
+		minY = Math.floor(y0 / cellSize) * cellSize;
+
+		cols = (int) ((x1 - minX) / cellSize) + 1;
+		rows = (int) ((y1 - minY) / cellSize) + 1;
+
+		maxX = minX + cols * cellSize;
+		maxY = minY + rows * cellSize;
+
+		// first pass: count the lines per cell
+		int[] counts = new int[cols * rows + 1];
+
+		for (int i = 0; i < segments.size; i++) {
+			insert(i, counts, null);
+		}
+
+		// prefix sum => start index per cell
+		cellStart = new int[cols * rows + 1];
+		for (int i = 0; i < cols * rows; i++) {
+			cellStart[i + 1] = cellStart[i] + counts[i];
+		}
+
+		// second pass: fill the cells
+		cellLines = new int[cellStart[cols * rows]];
+
+		int[] fill = new int[cols * rows];
+		for (int i = 0; i < segments.size; i++) {
+			insert(i, fill, cellLines);
+		}
+
+	}
+
+	/**
+	 * Walk all cells the given line passes through, row by row. Without a target only the cell counters are increased,
+	 * with a target the line index is stored in the cell.
+	 */
+	private void insert(int index, int[] counter, int[] target) {
+
+		// walk from the end point with the smaller y to the one with the larger y
+		double ax = segments.x1[index];
+		double ay = segments.y1[index];
+		double bx = segments.x2[index];
+		double by = segments.y2[index];
+
+		if (by < ay) {
+			ax = segments.x2[index];
+			ay = segments.y2[index];
+			bx = segments.x1[index];
+			by = segments.y1[index];
+		}
+
+		int rowStart = clamp((int) ((ay - minY) / cellSize), rows);
+		int rowEnd = clamp((int) ((by - minY) / cellSize), rows);
+
+		// line parameter at which the current row is entered; consecutive rows share the parameter of their border,
+		// so that the cells of the rows always connect, even for nearly horizontal lines
+		double tEnter = 0;
+
+		for (int row = rowStart; row <= rowEnd; row++) {
+
+			double tExit = 1;
+			if (row < rowEnd) {
+				tExit = Math.max(tEnter, Math.min(1, (minY + (row + 1) * cellSize - ay) / (by - ay)));
+			}
+
+			double xa = ax + (bx - ax) * tEnter;
+			double xb = ax + (bx - ax) * tExit;
+
+			int colStart = clamp((int) ((Math.min(xa, xb) - minX) / cellSize), cols);
+			int colEnd = clamp((int) ((Math.max(xa, xb) - minX) / cellSize), cols);
+
+			for (int col = colStart; col <= colEnd; col++) {
+
+				int cell = row * cols + col;
+
+				if (target != null) {
+					target[cellStart[cell] + counter[cell]] = index;
+				}
+
+				counter[cell]++;
+			}
+
+			tEnter = tExit;
+		}
+	}
+
+	private static int clamp(int value, int count) {
+		return Math.max(0, Math.min(count - 1, value));
+	}
+
+	/**
+	 * The cells are walked in ray order (DDA), the walk stops at the first cell in which a hit was found that lies
+	 * within the cell.
+	 */
+	@Override
+	public double getClosestHit(double startX, double startY, double dx, double dy) {
+		return getClosestHit(startX, startY, dx, dy, Double.POSITIVE_INFINITY, null);
+	}
+
+	@Override
+	public boolean getClosestHit(double startX, double startY, double dx, double dy, RayHit hit) {
+
+		double bound = hit.t;
+
+		return getClosestHit(startX, startY, dx, dy, bound, hit) < bound;
+	}
+
+	/**
+	 * Closest hit before the given bound, stored in the given hit if it isn't null. The traversal stops at the first
+	 * cell which lies beyond the bound.
+	 */
+	private double getClosestHit(double startX, double startY, double dx, double dy, double closest, RayHit hit) {
+
+		if (cols == 0)
+			return closest;
+
+		// clip the ray against the grid bounds
+		double tEnter = 0;
+		double tLeave = 1;
+
+		if (dx != 0) {
+			double ta = (minX - startX) / dx;
+			double tb = (maxX - startX) / dx;
+			tEnter = Math.max(tEnter, Math.min(ta, tb));
+			tLeave = Math.min(tLeave, Math.max(ta, tb));
+		} else if (startX < minX || startX > maxX) {
+			return closest;
+		}
+
+		if (dy != 0) {
+			double ta = (minY - startY) / dy;
+			double tb = (maxY - startY) / dy;
+			tEnter = Math.max(tEnter, Math.min(ta, tb));
+			tLeave = Math.min(tLeave, Math.max(ta, tb));
+		} else if (startY < minY || startY > maxY) {
+			return closest;
+		}
+
+		if (tEnter > tLeave || tEnter >= closest)
+			return closest;
+
+		// start cell
+		int col = clamp((int) ((startX + dx * tEnter - minX) / cellSize), cols);
+		int row = clamp((int) ((startY + dy * tEnter - minY) / cellSize), rows);
+
+		int stepX = dx > 0 ? 1 : -1;
+		int stepY = dy > 0 ? 1 : -1;
+
+		// ray parameter at which the next vertical / horizontal cell border is crossed
+		double tMaxX = dx == 0 ? Double.POSITIVE_INFINITY : (minX + (col + (dx > 0 ? 1 : 0)) * cellSize - startX) / dx;
+		double tMaxY = dy == 0 ? Double.POSITIVE_INFINITY : (minY + (row + (dy > 0 ? 1 : 0)) * cellSize - startY) / dy;
+
+		double tDeltaX = dx == 0 ? Double.POSITIVE_INFINITY : cellSize / Math.abs(dx);
+		double tDeltaY = dy == 0 ? Double.POSITIVE_INFINITY : cellSize / Math.abs(dy);
+
+		int segment = -1;
+		int tests = 0;
+
+		while (true) {
+
+			int cell = row * cols + col;
+
+			tests += cellStart[cell + 1] - cellStart[cell];
+
+			for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+
+				int line = cellLines[i];
+
+				double t = Algorithm.getRayIntersection(startX, startY, dx, dy, segments.x1[line], segments.y1[line], segments.x2[line], segments.y2[line]);
+
+				if (t < closest) {
+					closest = t;
+					segment = line;
+				}
+			}
+
+			double tCellExit = Math.min(tMaxX, tMaxY);
+
+			// a hit that lies before the cell exit can't be beaten by lines of later cells
+			if (closest <= tCellExit || tCellExit >= tLeave)
+				break;
+
+			if (tMaxX < tMaxY) {
+				col += stepX;
+				tMaxX += tDeltaX;
+				if (col < 0 || col >= cols)
+					break;
+			} else {
+				row += stepY;
+				tMaxY += tDeltaY;
+				if (row < 0 || row >= rows)
+					break;
+			}
+		}
+
+		VisibilityCounters.addSegmentTests(tests);
+
+		if (hit != null && segment != -1) {
+			hit.set(closest, segment);
+		}
+
+		return closest;
+	}
+
+	@Override
+	public double getHit(int segment, double startX, double startY, double dx, double dy) {
+		return Algorithm.getRayIntersection(startX, startY, dx, dy, segments.x1[segment], segments.y1[segment], segments.x2[segment], segments.y2[segment]);
+	}
+
+	public double getCellSize() {
+		return cellSize;
+	}
+
+}
@@ -0,0 +1,198 @@
+package LineofSight;
+
+import java.util.Arrays;
+
+/**
+ * Reduces the number of scene segments before the visibility queries. Every segment costs an intersection test per
+ * ray, but the generated levels contain segments which don't add anything: collinear walls which touch or overlap,
+ * e. g. room walls on the outer walls, duplicates and segments of zero length.
+ *
+ * Collinear segments which touch or overlap are merged into a single segment from the first to the last of their end
+ * points. The end points are taken over unchanged, so the merged segment covers exactly the same points. Gaps between
+ * collinear segments, e. g. doors, are kept.
+ */
+public class ScenePreprocessor {
+
+	/**
+	 * Tolerance for the direction and the offset of collinear segments and for touching end points
+	 */
+	static final double EPSILON = 1e-9;
+
+	// statistics of the last run
+	int inputCount;
+	int degenerateCount;
+	int mergedCount;
+	int outputCount;
+
+	/**
+	 * Create the reduced copy of the given segments. The given store isn't changed.
+	 */
+	public SegmentStore process(SegmentStore segments) {
+
+		int n = segments.size();
+
+		inputCount = n;
+		degenerateCount = 0;
+		mergedCount = 0;
+
+		// line of each segment: unit direction with angle in [0, PI), signed distance of the line from the origin and
+		// the positions of the end points along the direction
+		double[] angle = new double[n];
+		double[] offset = new double[n];
+		double[] from = new double[n];
+		double[] to = new double[n];
+
+		// end points in direction order
+		double[] startX = new double[n];
+		double[] startY = new double[n];
+		double[] endX = new double[n];
+		double[] endY = new double[n];
+
+		Integer[] order = new Integer[n];
+		int count = 0;
+
+		for (int i = 0; i < n; i++) {
+
+			double ax = segments.x1[i];
+			double ay = segments.y1[i];
+			double bx = segments.x2[i];
+			double by = segments.y2[i];
+
+			double dx = bx - ax;
+			double dy = by - ay;
+
+			double length = Math.hypot(dx, dy);
+
+			if (length <= EPSILON) {
+				degenerateCount++;
+				continue;
+			}
+
+			if (dy < 0 || (dy == 0 && dx < 0)) {
+				dx = -dx;
+				dy = -dy;
+				double tmp = ax;
+				ax = bx;
+				bx = tmp;
+				tmp = ay;
+				ay = by;
+				by = tmp;
+			}
+
+			double ux = dx / length;
+			double uy = dy / length;
+
+			angle[i] = Math.atan2(uy, ux);
+			offset[i] = ux * ay - uy * ax;
+			from[i] = ux * ax + uy * ay;
+			to[i] = ux * bx + uy * by;
+
+			startX[i] = ax;
+			startY[i] = ay;
+			endX[i] = bx;
+			endY[i] = by;
+
+			order[count++] = i;
+		}
+
+		// the segments of a line are next to each other, ordered by their start
+		Arrays.sort(order, 0, count, (a, b) -> {
+
+			int result = Double.compare(angle[a], angle[b]);
+			if (result != 0)
+				return result;
+
+			result = Double.compare(offset[a], offset[b]);
+			if (result != 0)
+				return result;
+
+			return Double.compare(from[a], from[b]);
+		});
+
+		SegmentStore result = new SegmentStore(Math.max(1, count));
+
+		int k = 0;
+
+		while (k < count) {
+
+			// all segments of the same line; neighbors within the tolerance belong to it
+			int lineEnd = k + 1;
+			while (lineEnd < count && angle[order[lineEnd]] - angle[order[lineEnd - 1]] <= EPSILON && Math.abs(offset[order[lineEnd]] - offset[order[lineEnd - 1]]) <= EPSILON) {
+				lineEnd++;
+			}
+
+			// the tolerance can mix the order of the starts, so sort the line by its start again
+			Arrays.sort(order, k, lineEnd, (a, b) -> Double.compare(from[a], from[b]));
+
+			// merge the segments which touch or overlap
+			int current = order[k];
+			double currentTo = to[current];
+			int last = current;
+
+			for (int i = k + 1; i < lineEnd; i++) {
+
+				int segment = order[i];
+
+				if (from[segment] <= currentTo + EPSILON) {
+
+					if (to[segment] > currentTo) {
+						currentTo = to[segment];
+						last = segment;
+					}
+
+					mergedCount++;
+
+				} else {
+
+					result.add(startX[current], startY[current], endX[last], endY[last]);
+
+					current = segment;
+					currentTo = to[segment];
+					last = segment;
+				}
+			}
+
+			result.add(startX[current], startY[current], endX[last], endY[last]);
+
+			k = lineEnd;
+		}
+
+		outputCount = result.size();
+
+		return result;
+	}
+
+	/**
+	 * Number of segments of the last input
+	 */
+	public int getInputCount() {
+		return inputCount;
+	}
+
+	/**
+	 * Number of segments of zero length which were removed
+	 */
+	public int getDegenerateCount() {
+		return degenerateCount;
+	}
+
+	/**
+	 * Number of segments which were merged into others, including duplicates
+	 */
+	public int getMergedCount() {
+		return mergedCount;
+	}
+
+	/**
+	 * Number of segments of the last result
+	 */
+	public int getOutputCount() {
+		return outputCount;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d segments => %d (%d degenerate, %d merged)", inputCount, outputCount, degenerateCount, mergedCount);
+	}
+
+}
@@ -0,0 +1,335 @@
+package LineofSight;
+
+import java.util.Arrays;
+
+/**
+ * Bounding volume hierarchy over the scene lines. Unlike the uniform grid it adapts to irregular scenes: a long
+ * diagonal line is stored once in a single leaf instead of in every cell it crosses.
+ *
+ * The tree is flattened in depth first order. For inner node i the left child is node i+1 and the right child is
+ * node right[i]. Leaf nodes reference count[i] lines starting at first[i]; the line coordinates are copied in leaf
+ * order so that a leaf is tested with sequential memory access.
+ */
+public class SegmentBvh implements SegmentIndex {
+
+	/**
+	 * Maximum number of lines per leaf
+	 */
+	static final int LEAF_SIZE = 4;
+
+	// node bounds
+	double[] nodeMinX;
+	double[] nodeMinY;
+	double[] nodeMaxX;
+	double[] nodeMaxY;
+
+	// inner node: index of the right child; leaf: index of the first line
+	int[] right;
+	int[] first;
+	int[] count;
+
+	int nodeCount = 0;
+	int depth = 0;
+
+	// line coordinates in leaf order
+	double[] x1;
+	double[] y1;
+	double[] x2;
+	double[] y2;
+
+	/**
+	 * Traversal stack per thread, sized by the tree depth
+	 */
+	private final ThreadLocal<int[]> stack;
+
+	public SegmentBvh(SegmentStore segments) {
+
+		int n = segments.size();
+
+		x1 = Arrays.copyOf(segments.x1, n);
+		y1 = Arrays.copyOf(segments.y1, n);
+		x2 = Arrays.copyOf(segments.x2, n);
+		y2 = Arrays.copyOf(segments.y2, n);
+
+		// median splits leave at least 2 lines per leaf, so there are less than n nodes
+		int maxNodes = Math.max(1, n);
+
+		nodeMinX = new double[maxNodes];
+		nodeMinY = new double[maxNodes];
+		nodeMaxX = new double[maxNodes];
+		nodeMaxY = new double[maxNodes];
+		right = new int[maxNodes];
+		first = new int[maxNodes];
+		count = new int[maxNodes];
+
+		// centroids used for partitioning
+		double[] centerX = new double[n];
+		double[] centerY = new double[n];
+		for (int i = 0; i < n; i++) {
+			centerX[i] = (x1[i] + x2[i]) * 0.5;
+			centerY[i] = (y1[i] + y2[i]) * 0.5;
+		}
+
+		build(0, n, centerX, centerY, 1);
+
+		final int stackSize = depth + 1;
+		stack = ThreadLocal.withInitial(() -> new int[stackSize]);
+	}
+
+	/**
+	 * Create the node for the lines [from, to) and recursively its children. The lines are partitioned at the median
+	 * centroid of the longest axis of the node.
+	 */
+	private int build(int from, int to, double[] centerX, double[] centerY, int level) {
+
+		int node = nodeCount++;
+
+		depth = Math.max(depth, level);
+
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+
+		for (int i = from; i < to; i++) {
+			minX = Math.min(minX, Math.min(x1[i], x2[i]));
+			minY = Math.min(minY, Math.min(y1[i], y2[i]));
+			maxX = Math.max(maxX, Math.max(x1[i], x2[i]));
+			maxY = Math.max(maxY, Math.max(y1[i], y2[i]));
+		}
+
+		nodeMinX[node] = minX;
+		nodeMinY[node] = minY;
+		nodeMaxX[node] = maxX;
+		nodeMaxY[node] = maxY;
+
+		if (to - from <= LEAF_SIZE) {
+			first[node] = from;
+			count[node] = to - from;
+			return node;
+		}
+
+		boolean splitX = (maxX - minX) >= (maxY - minY);
+
+		int mid = (from + to) >>> 1;
+		select(from, to - 1, mid, splitX ? centerX : centerY, centerX, centerY);
+
+		build(from, mid, centerX, centerY, level + 1);
+		right[node] = build(mid, to, centerX, centerY, level + 1);
+		count[node] = 0;
+
+		return node;
+	}
+
+	/**
+	 * Quickselect: reorder the lines [lo, hi] so that the line at index k has the k-th smallest key, with smaller keys
+	 * before and larger keys after it.
+	 */
+	private void select(int lo, int hi, int k, double[] key, double[] centerX, double[] centerY) {
+
+		while (hi > lo) {
+
+			double pivot = key[(lo + hi) >>> 1];
+
+			int i = lo;
+			int j = hi;
+
+			while (i <= j) {
+				while (key[i] < pivot)
+					i++;
+				while (key[j] > pivot)
+					j--;
+				if (i <= j) {
+					swap(i, j, centerX, centerY);
+					i++;
+					j--;
+				}
+			}
+
+			if (k <= j) {
+				hi = j;
+			} else if (k >= i) {
+				lo = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void swap(int i, int j, double[] centerX, double[] centerY) {
+		swap(x1, i, j);
+		swap(y1, i, j);
+		swap(x2, i, j);
+		swap(y2, i, j);
+		swap(centerX, i, j);
+		swap(centerY, i, j);
+	}
+
+	private static void swap(double[] array, int i, int j) {
+		double tmp = array[i];
+		array[i] = array[j];
+		array[j] = tmp;
+	}
+
+	/**
+	 * Closest hit traversal: the nearer child is visited first and subtrees whose bounds are entered behind the
+	 * closest hit found so far are skipped.
+	 */
+	@Override
+	public double getClosestHit(double startX, double startY, double dx, double dy) {
+		return getClosestHit(startX, startY, dx, dy, Double.POSITIVE_INFINITY, null);
+	}
+
+	@Override
+	public boolean getClosestHit(double startX, double startY, double dx, double dy, RayHit hit) {
+
+		double bound = hit.t;
+
+		return getClosestHit(startX, startY, dx, dy, bound, hit) < bound;
+	}
+
+	/**
+	 * Closest hit before the given bound, stored in the given hit if it isn't null. Nodes which are entered beyond the
+	 * bound are skipped.
+	 */
+	private double getClosestHit(double startX, double startY, double dx, double dy, double closest, RayHit hit) {
+
+		if (nodeCount == 0 || x1.length == 0)
+			return closest;
+
+		double invDx = 1.0 / dx;
+		double invDy = 1.0 / dy;
+
+		int[] todo = stack.get();
+		int size = 0;
+
+		int segment = -1;
+		int tests = 0;
+
+		int node = 0;
+
+		if (enter(node, startX, startY, invDx, invDy, closest) == Double.POSITIVE_INFINITY)
+			return closest;
+
+		while (true) {
+
+			if (count[node] > 0) {
+
+				// leaf: test the lines
+				int end = first[node] + count[node];
+				tests += count[node];
+				for (int i = first[node]; i < end; i++) {
+
+					double t = Algorithm.getRayIntersection(startX, startY, dx, dy, x1[i], y1[i], x2[i], y2[i]);
+
+					if (t < closest) {
+						closest = t;
+						segment = i;
+					}
+				}
+
+			} else {
+
+				// inner node: descend into the nearer child, keep the other one for later
+				int a = node + 1;
+				int b = right[node];
+
+				double ta = enter(a, startX, startY, invDx, invDy, closest);
+				double tb = enter(b, startX, startY, invDx, invDy, closest);
+
+				if (ta != Double.POSITIVE_INFINITY && tb != Double.POSITIVE_INFINITY) {
+					if (tb < ta) {
+						node = b;
+						todo[size++] = a;
+					} else {
+						node = a;
+						todo[size++] = b;
+					}
+					continue;
+				} else if (ta != Double.POSITIVE_INFINITY) {
+					node = a;
+					continue;
+				} else if (tb != Double.POSITIVE_INFINITY) {
+					node = b;
+					continue;
+				}
+			}
+
+			// next node from the stack which might still contain a closer hit
+			do {
+				if (size == 0) {
+
+					VisibilityCounters.addSegmentTests(tests);
+
+					if (hit != null && segment != -1) {
+						hit.set(closest, segment);
+					}
+
+					return closest;
+				}
+				node = todo[--size];
+			} while (enter(node, startX, startY, invDx, invDy, closest) == Double.POSITIVE_INFINITY);
+
+		}
+
+	}
+
+	/**
+	 * The segment numbers of the BVH are the positions in leaf order, not the ones of the segment store.
+	 */
+	@Override
+	public double getHit(int segment, double startX, double startY, double dx, double dy) {
+		return Algorithm.getRayIntersection(startX, startY, dx, dy, x1[segment], y1[segment], x2[segment], y2[segment]);
+	}
+
+	/**
+	 * Slab test of the ray against the node bounds.
+	 *
+	 * @return the ray parameter at which the bounds are entered or Double.POSITIVE_INFINITY if the ray misses the
+	 *         bounds before maxT
+	 */
+	private double enter(int node, double startX, double startY, double invDx, double invDy, double maxT) {
+
+		double tx1 = (nodeMinX[node] - startX) * invDx;
+		double tx2 = (nodeMaxX[node] - startX) * invDx;
+		double ty1 = (nodeMinY[node] - startY) * invDy;
+		double ty2 = (nodeMaxY[node] - startY) * invDy;
+
+		// NaN happens for a zero direction component on the node border, that axis is then treated as unbounded
+		double tMin = Math.max(minNum(tx1, tx2), minNum(ty1, ty2));
+		double tMax = Math.min(maxNum(tx1, tx2), maxNum(ty1, ty2));
+
+		tMin = Math.max(tMin, 0);
+		tMax = Math.min(tMax, Math.min(1, maxT));
+
+		if (tMin > tMax)
+			return Double.POSITIVE_INFINITY;
+
+		return tMin;
+	}
+
+	private static double minNum(double a, double b) {
+		if (a != a)
+			return Double.NEGATIVE_INFINITY;
+		if (b != b)
+			return Double.NEGATIVE_INFINITY;
+		return a < b ? a : b;
+	}
+
+	private static double maxNum(double a, double b) {
+		if (a != a)
+			return Double.POSITIVE_INFINITY;
+		if (b != b)
+			return Double.POSITIVE_INFINITY;
+		return a > b ? a : b;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+}
@@ -0,0 +1,307 @@
+package LineofSight;
+
+import java.util.Arrays;
+
+/**
+ * The segments of a store which can be hit by the scan lines of a single viewer, i. e. the ones which intersect the
+ * circle of the scan line length around the viewer. The rays of that viewer only have to test these instead of the
+ * whole scene.
+ *
+ * The candidates keep the segment numbers, the end points and the order of the store, so the hits are exactly the same
+ * as those of the store. That's why they aren't clipped to the circle: the scan lines end at the circle and can't hit
+ * the part outside anyway, but clipped end points would be rounded and move the hits slightly. The buffer is reused for the following viewers and doesn't allocate anything once it has reached the
+ * size of the largest candidate set. It isn't safe for concurrent use, every thread needs its own buffer.
+ */
+public class SegmentCandidates implements SegmentIndex {
+
+	SegmentStore segments;
+
+	/**
+	 * Segment number in the store per candidate
+	 */
+	int[] ids;
+
+	double[] x1;
+	double[] y1;
+	double[] x2;
+	double[] y2;
+
+	int size = 0;
+
+	/**
+	 * Segments in range of the grid cells, in finding order
+	 */
+	private int[] marked = new int[256];
+	private int markedCount = 0;
+
+	/**
+	 * Mark number per segment of the store, so that a segment in several cells is tested once; a segment has been
+	 * tested if its number equals the current mark
+	 */
+	private int[] marks = new int[0];
+	private int mark = 0;
+
+	public SegmentCandidates() {
+		this(256);
+	}
+
+	public SegmentCandidates(int capacity) {
+
+		capacity = Math.max(1, capacity);
+
+		ids = new int[capacity];
+		x1 = new double[capacity];
+		y1 = new double[capacity];
+		x2 = new double[capacity];
+		y2 = new double[capacity];
+	}
+
+	/**
+	 * Collect the segments of the store which come closer to the viewer than the given range.
+	 */
+	public void collect(SegmentStore segments, double viewerX, double viewerY, double range) {
+
+		this.segments = segments;
+
+		size = 0;
+
+		double limit = getLimit(range);
+		double limitSquared = limit * limit;
+
+		for (int i = 0; i < segments.size; i++) {
+			if (isInRange(i, viewerX, viewerY, limitSquared)) {
+				add(i);
+			}
+		}
+	}
+
+	/**
+	 * Collect the segments of the grid's store which come closer to the viewer than the given range. Only the lines of
+	 * the cells which overlap the bounding box of the circle are tested; a line in several of these cells is tested
+	 * once. The candidates are sorted into store order, so they are the same as those of the linear pass. If the cells
+	 * hold about as many lines as the whole store, e. g. for a large range or a small scene, the linear pass is cheaper
+	 * and used instead.
+	 */
+	public void collect(SceneGrid grid, double viewerX, double viewerY, double range) {
+
+		// cells of the bounding box of the circle, with the limit a line on a cell border isn't missed
+		double limit = getLimit(range);
+		double limitSquared = limit * limit;
+
+		int colStart = clamp(Math.floor((viewerX - limit - grid.minX) / grid.cellSize), grid.cols);
+		int colEnd = clamp(Math.floor((viewerX + limit - grid.minX) / grid.cellSize), grid.cols);
+		int rowStart = clamp(Math.floor((viewerY - limit - grid.minY) / grid.cellSize), grid.rows);
+		int rowEnd = clamp(Math.floor((viewerY + limit - grid.minY) / grid.cellSize), grid.rows);
+
+		// visiting a cell costs about as much as testing a line; the lines per cell are estimated by the average
+		long cellCount = (long) (colEnd - colStart + 1) * (rowEnd - rowStart + 1);
+		double lineCount = grid.cols == 0 ? 0 : cellCount * (double) grid.cellLines.length / ((long) grid.cols * grid.rows);
+
+		if (grid.cols == 0 || cellCount + lineCount >= grid.segments.size) {
+			collect(grid.segments, viewerX, viewerY, range);
+			return;
+		}
+
+		clearMarks(grid.segments);
+
+		for (int row = rowStart; row <= rowEnd; row++) {
+			for (int col = colStart; col <= colEnd; col++) {
+
+				int cell = row * grid.cols + col;
+
+				for (int i = grid.cellStart[cell]; i < grid.cellStart[cell + 1]; i++) {
+
+					int segment = grid.cellLines[i];
+
+					// tested in a previous cell
+					if (marks[segment] == mark)
+						continue;
+
+					marks[segment] = mark;
+
+					if (isInRange(segment, viewerX, viewerY, limitSquared)) {
+
+						if (markedCount == marked.length) {
+							marked = Arrays.copyOf(marked, markedCount * 2);
+						}
+
+						marked[markedCount++] = segment;
+					}
+				}
+			}
+		}
+
+		collectMarked();
+	}
+
+	private static int clamp(double cell, int count) {
+		return (int) Math.max(0, Math.min(count - 1, cell));
+	}
+
+	/**
+	 * A little more than the range, so that rounding doesn't drop a segment which a scan line still hits at its end
+	 */
+	static double getLimit(double range) {
+		return range * (1 + 1e-9) + 1e-9;
+	}
+
+	/**
+	 * Check if the segment of the current store comes closer to the viewer than the limit
+	 */
+	private boolean isInRange(int segment, double viewerX, double viewerY, double limitSquared) {
+
+		double ax = segments.x1[segment] - viewerX;
+		double ay = segments.y1[segment] - viewerY;
+		double dx = segments.x2[segment] - segments.x1[segment];
+		double dy = segments.y2[segment] - segments.y1[segment];
+
+		// closest point of the segment to the viewer
+		double lengthSquared = dx * dx + dy * dy;
+		double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, -(ax * dx + ay * dy) / lengthSquared));
+
+		double px = ax + t * dx;
+		double py = ay + t * dy;
+
+		return px * px + py * py <= limitSquared;
+	}
+
+	/**
+	 * Use the given segments of the store, e. g. a precomputed set. The segment numbers must be in ascending order.
+	 */
+	public void collect(SegmentStore segments, int[] segmentNumbers, int from, int to) {
+
+		this.segments = segments;
+
+		size = 0;
+
+		for (int i = from; i < to; i++) {
+			add(segmentNumbers[i]);
+		}
+	}
+
+	/**
+	 * Use those of the given segments of the store whose distance is within the range, e. g. a precomputed set with the
+	 * distances of its segments to the area of the viewer. The segment numbers must be in ascending order.
+	 */
+	public void collect(SegmentStore segments, int[] segmentNumbers, double[] distances, int from, int to, double range) {
+
+		this.segments = segments;
+
+		size = 0;
+
+		double limit = getLimit(range);
+
+		for (int i = from; i < to; i++) {
+			if (distances[i] <= limit) {
+				add(segmentNumbers[i]);
+			}
+		}
+	}
+
+	/**
+	 * Start marking the segments of the given store which are in range of the grid cells.
+	 */
+	private void clearMarks(SegmentStore segments) {
+
+		this.segments = segments;
+
+		markedCount = 0;
+
+		if (marks.length < segments.size) {
+			marks = new int[segments.size];
+			mark = 0;
+		}
+
+		// restart the numbering before it overflows
+		if (++mark == Integer.MAX_VALUE) {
+			Arrays.fill(marks, 0);
+			mark = 1;
+		}
+	}
+
+	/**
+	 * Use the marked segments as candidates, in the order of the store
+	 */
+	private void collectMarked() {
+
+		Arrays.sort(marked, 0, markedCount);
+
+		collect(segments, marked, 0, markedCount);
+	}
+
+	private void add(int segment) {
+
+		if (size == ids.length) {
+			int capacity = ids.length * 2;
+			ids = Arrays.copyOf(ids, capacity);
+			x1 = Arrays.copyOf(x1, capacity);
+			y1 = Arrays.copyOf(y1, capacity);
+			x2 = Arrays.copyOf(x2, capacity);
+			y2 = Arrays.copyOf(y2, capacity);
+		}
+
+		ids[size] = segment;
+		x1[size] = segments.x1[segment];
+		y1[size] = segments.y1[segment];
+		x2[size] = segments.x2[segment];
+		y2[size] = segments.y2[segment];
+
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Brute force over the candidates.
+	 */
+	@Override
+	public double getClosestHit(double startX, double startY, double dx, double dy) {
+		return getClosestHit(startX, startY, dx, dy, Double.POSITIVE_INFINITY, null);
+	}
+
+	@Override
+	public boolean getClosestHit(double startX, double startY, double dx, double dy, RayHit hit) {
+
+		double bound = hit.t;
+
+		return getClosestHit(startX, startY, dx, dy, bound, hit) < bound;
+	}
+
+	/**
+	 * Closest hit before the given bound, stored in the given hit if it isn't null
+	 */
+	private double getClosestHit(double startX, double startY, double dx, double dy, double closest, RayHit hit) {
+
+		VisibilityCounters.addSegmentTests(size);
+
+		int segment = -1;
+
+		for (int i = 0; i < size; i++) {
+
+			double t = Algorithm.getRayIntersection(startX, startY, dx, dy, x1[i], y1[i], x2[i], y2[i]);
+
+			if (t < closest) {
+				closest = t;
+				segment = ids[i];
+			}
+		}
+
+		if (hit != null && segment != -1) {
+			hit.set(closest, segment);
+		}
+
+		return closest;
+	}
+
+	/**
+	 * The segment numbers are the ones of the store, so any segment of the store can be tested, not only the
+	 * candidates.
+	 */
+	@Override
+	public double getHit(int segment, double startX, double startY, double dx, double dy) {
+		return segments.getHit(segment, startX, startY, dx, dy);
+	}
+
+}
@@ -0,0 +1,47 @@
+package LineofSight;
+
+/**
+ * Spatial index over the scene lines which answers closest hit ray queries.
+ */
+public interface SegmentIndex {
+
+	/**
+	 * Find the closest intersection of the ray start + t * (dx,dy) with t in [0,1] and the indexed lines.
+	 *
+	 * @return the parameter t of the closest hit or Double.POSITIVE_INFINITY if there is none
+	 */
+	double getClosestHit(double startX, double startY, double dx, double dy);
+
+	/**
+	 * Find the closest intersection of the ray which lies before the given hit. Everything beyond the given hit is
+	 * skipped, so a known hit, e. g. the one of the previous frame, makes the search cheaper. A cleared hit searches the
+	 * whole ray.
+	 *
+	 * @param hit
+	 *            the bound of the search; receives the closer hit if there is one
+	 * @return true if a closer hit was found
+	 */
+	boolean getClosestHit(double startX, double startY, double dx, double dy, RayHit hit);
+
+	/**
+	 * Intersect the ray with a single segment.
+	 *
+	 * @param segment
+	 *            segment number as reported in the hits of this index
+	 * @return the parameter t of the hit or Double.POSITIVE_INFINITY if the ray misses the segment
+	 */
+	double getHit(int segment, double startX, double startY, double dx, double dy);
+
+	/**
+	 * Index for the scan lines of a single viewer, which don't reach further than the given range. Indices which can
+	 * restrict the search to the segments in range fill the given candidates and return them, the others return
+	 * themselves. The segment numbers of the hits are the same in both cases.
+	 *
+	 * @param candidates
+	 *            buffer for the segments in range, owned by the caller
+	 */
+	default SegmentIndex select(double viewerX, double viewerY, double range, SegmentCandidates candidates) {
+		return this;
+	}
+
+}
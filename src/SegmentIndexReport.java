@@ -0,0 +1,115 @@
+package LineofSight;
+
+import java.util.Random;
+
+/**
+ * Console report of build time and closest hit query throughput of the spatial indices for random scenes from 1k to
+ * 1M lines. The scene area grows with the line count so that the line density stays the same.
+ */
+public class SegmentIndexReport {
+
+	static final int[] LINE_COUNTS = { 1_000, 10_000, 100_000, 1_000_000 };
+
+	static final int RAY_COUNT = 200_000;
+
+	static final double MAX_LINE_LENGTH = 100;
+
+	static final double RAY_LENGTH = 200;
+
+	static final double CELL_SIZE = 980.0 / 60;
+
+	public static void main(String[] args) {
+
+		System.out.println(String.format("%10s %8s %12s %14s", "lines", "index", "build [ms]", "rays/s"));
+
+		for (int lineCount : LINE_COUNTS) {
+
+			Random rnd = new Random(lineCount);
+
+			double size = Math.sqrt(lineCount) * 30;
+
+			SegmentStore lines = createRandomLines(rnd, lineCount, size);
+			double[] rays = createRandomRays(rnd, RAY_COUNT, size);
+
+			report(lineCount, "Grid", () -> new SceneGrid(lines, CELL_SIZE), rays);
+			report(lineCount, "BVH", () -> new SegmentBvh(lines), rays);
+
+		}
+	}
+
+	private interface IndexFactory {
+		SegmentIndex create();
+	}
+
+	private static void report(int lineCount, String name, IndexFactory factory, double[] rays) {
+
+		long start = System.nanoTime();
+		SegmentIndex index = factory.create();
+		long buildNanos = System.nanoTime() - start;
+
+		// warm up
+		castRays(index, rays);
+
+		start = System.nanoTime();
+		double hits = castRays(index, rays);
+		long queryNanos = System.nanoTime() - start;
+
+		double raysPerSecond = RAY_COUNT / (queryNanos / 1_000_000_000.0);
+
+		System.out.println(String.format("%10d %8s %12.1f %14.0f %s", lineCount, name, buildNanos / 1_000_000.0, raysPerSecond, hits > 0 ? "" : "(no hits)"));
+	}
+
+	private static double castRays(SegmentIndex index, double[] rays) {
+
+		double sum = 0;
+
+		for (int i = 0; i < rays.length; i += 4) {
+
+			double t = index.getClosestHit(rays[i], rays[i + 1], rays[i + 2], rays[i + 3]);
+
+			if (t != Double.POSITIVE_INFINITY) {
+				sum += t;
+			}
+		}
+
+		return sum;
+	}
+
+	private static SegmentStore createRandomLines(Random rnd, int count, double size) {
+
+		SegmentStore lines = new SegmentStore(count);
+
+		for (int i = 0; i < count; i++) {
+
+			double x = rnd.nextDouble() * size;
+			double y = rnd.nextDouble() * size;
+			double angle = rnd.nextDouble() * Math.PI * 2;
+			double length = rnd.nextDouble() * MAX_LINE_LENGTH;
+
+			lines.add(x, y, x + Math.cos(angle) * length, y + Math.sin(angle) * length);
+		}
+
+		return lines;
+	}
+
+	/**
+	 * Rays as start x, start y, direction x, direction y
+	 */
+	private static double[] createRandomRays(Random rnd, int count, double size) {
+
+		double[] rays = new double[count * 4];
+
+		for (int i = 0; i < rays.length; i += 4) {
+
+			double angle = rnd.nextDouble() * Math.PI * 2;
+
+			rays[i] = rnd.nextDouble() * size;
+			rays[i + 1] = rnd.nextDouble() * size;
+			rays[i + 2] = Math.cos(angle) * RAY_LENGTH;
+			rays[i + 3] = Math.sin(angle) * RAY_LENGTH;
+		}
+
+		return rays;
+	}
+
+}
@@ -0,0 +1,465 @@
+package LineofSight;
+
+import java.util.Arrays;
+
+/**
+ * Potentially visible set per grid cell: the segments which a scan line of a viewer anywhere in the cell can hit. The
+ * sets are baked once for the static level, a query then only looks up the set of the viewer's cell instead of
+ * collecting the segments in range.
+ *
+ * A segment is left out of the set of a cell if a single other segment hides it from the whole cell. Seen from a
+ * point, the shadow of a segment is convex, so a segment whose end points lie in the shadows of the occluder from all
+ * four cell corners lies in the shadow from every point of the cell. Each scan line which reaches it hits the occluder
+ * first. The occluders are the segments near the cell, which cast the largest shadows. Shadows are tested with a
+ * tolerance, so the culling is conservative and the hits are exactly the same as those of the segment store.
+ *
+ * The sets are baked for a maximum scan line length, by default for any length. Every entry keeps the distance of its
+ * segment to the cell rectangle, a query takes the entries within its scan line length, so changing the length doesn't
+ * bake the sets again. Only a query with a longer scan line than the baked one bakes them again, then for any length.
+ *
+ * The sets are stored in compressed form like the cells of the scene grid: the segments of cell i are
+ * cellSegments[cellStart[i]] .. cellSegments[cellStart[i+1]-1], in the order of the store.
+ */
+public class SegmentPvs implements SegmentIndex {
+
+	/**
+	 * Occluders are the segments of the scene grid cells up to this many cells around a cell
+	 */
+	static final int OCCLUDER_CELLS = 6;
+
+	/**
+	 * Maximum number of occluders per cell, the ones which appear largest from the cell center
+	 */
+	static final int MAX_OCCLUDERS = 16;
+
+	/**
+	 * Minimum distance of a shadowed point from the shadow borders and of a cell corner from the occluder line
+	 */
+	static final double SHADOW_TOLERANCE = 1e-6;
+
+	SegmentStore segments;
+
+	double cellSize;
+
+	/**
+	 * The baked sets, null until the first query or an explicit bake
+	 */
+	private volatile Sets sets;
+
+	private static class Sets {
+
+		/**
+		 * Maximum scan line length the sets are complete for
+		 */
+		double range;
+
+		double minX;
+		double minY;
+
+		int cols;
+		int rows;
+
+		int[] cellStart;
+		int[] cellSegments;
+
+		/**
+		 * Distance of the segment of each entry to the rectangle of its cell
+		 */
+		double[] cellDistances;
+	}
+
+	public SegmentPvs(SegmentStore segments, double cellSize) {
+		this.segments = segments;
+		this.cellSize = cellSize;
+	}
+
+	/**
+	 * Bake the sets for any scan line length. Called by the first query, but it can also be called in advance, e. g.
+	 * when the level is loaded.
+	 */
+	public void bake() {
+		bake(Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Bake the sets for scan lines up to the given length, e. g. for a batch with a fixed length. Doesn't do anything
+	 * if the current sets already cover it.
+	 */
+	public synchronized void bake(double range) {
+
+		if (sets != null && sets.range >= range)
+			return;
+
+		Sets baked = new Sets();
+		baked.range = range;
+
+		if (segments.isEmpty()) {
+			baked.cellStart = new int[1];
+			baked.cellSegments = new int[0];
+			baked.cellDistances = new double[0];
+			sets = baked;
+			return;
+		}
+
+		// the scene grid has the same bounds, aligned to the cell size
+		SceneGrid grid = new SceneGrid(segments, cellSize);
+
+		baked.minX = grid.minX;
+		baked.minY = grid.minY;
+		baked.cols = grid.cols;
+		baked.rows = grid.rows;
+
+		int cellCount = baked.cols * baked.rows;
+
+		baked.cellStart = new int[cellCount + 1];
+		baked.cellSegments = new int[Math.max(16, segments.size * 16)];
+		baked.cellDistances = new double[baked.cellSegments.length];
+
+		int count = 0;
+
+		// occluders of the current cell with their lines as a x + b y + c = 0, the normal (a, b) is a unit vector which
+		// points to the cell
+		int[] occluders = new int[MAX_OCCLUDERS + 1];
+		double[] occluderSizes = new double[MAX_OCCLUDERS + 1];
+		double[] occluderLines = new double[(MAX_OCCLUDERS + 1) * 3];
+		int[] stamps = new int[segments.size];
+
+		// the segments within range of a cell lie within range plus half the cell diagonal of its center
+		SegmentCandidates inRange = new SegmentCandidates();
+		double limit = SegmentCandidates.getLimit(range);
+		double limitSquared = limit * limit;
+
+		for (int row = 0; row < baked.rows; row++) {
+
+			double minY = baked.minY + row * cellSize;
+			double maxY = minY + cellSize;
+
+			for (int col = 0; col < baked.cols; col++) {
+
+				double minX = baked.minX + col * cellSize;
+				double maxX = minX + cellSize;
+
+				int cell = row * baked.cols + col;
+
+				// occluders: the segments of the cells around whose line has the whole cell on one side
+				int occluderCount = 0;
+
+				for (int r = Math.max(0, row - OCCLUDER_CELLS); r <= Math.min(baked.rows - 1, row + OCCLUDER_CELLS); r++) {
+					for (int c = Math.max(0, col - OCCLUDER_CELLS); c <= Math.min(baked.cols - 1, col + OCCLUDER_CELLS); c++) {
+
+						int gridCell = r * grid.cols + c;
+
+						for (int i = grid.cellStart[gridCell]; i < grid.cellStart[gridCell + 1]; i++) {
+
+							int segment = grid.cellLines[i];
+
+							if (stamps[segment] == cell + 1)
+								continue;
+
+							stamps[segment] = cell + 1;
+
+							if (!setLine(segment, occluderLines, occluderCount * 3, minX, minY, maxX, maxY))
+								continue;
+
+							double size = getAngularSize(segment, minX + cellSize / 2, minY + cellSize / 2);
+
+							// keep the occluders sorted by size, the smallest one drops out
+							int position = occluderCount;
+
+							while (position > 0 && occluderSizes[position - 1] < size) {
+								position--;
+							}
+
+							if (position == MAX_OCCLUDERS)
+								continue;
+
+							int last = Math.min(occluderCount, MAX_OCCLUDERS - 1);
+
+							double lineA = occluderLines[occluderCount * 3];
+							double lineB = occluderLines[occluderCount * 3 + 1];
+							double lineC = occluderLines[occluderCount * 3 + 2];
+
+							System.arraycopy(occluders, position, occluders, position + 1, last - position);
+							System.arraycopy(occluderSizes, position, occluderSizes, position + 1, last - position);
+							System.arraycopy(occluderLines, position * 3, occluderLines, (position + 1) * 3, (last - position) * 3);
+
+							occluders[position] = segment;
+							occluderSizes[position] = size;
+							occluderLines[position * 3] = lineA;
+							occluderLines[position * 3 + 1] = lineB;
+							occluderLines[position * 3 + 2] = lineC;
+
+							occluderCount = last + 1;
+						}
+					}
+				}
+
+				// the set in store order
+				inRange.collect(grid, minX + cellSize / 2, minY + cellSize / 2, limit + cellSize * Math.sqrt(0.5));
+
+				for (int k = 0; k < inRange.size; k++) {
+
+					int segment = inRange.ids[k];
+
+					if (isHidden(segment, occluders, occluderLines, occluderCount, minX, minY, maxX, maxY))
+						continue;
+
+					double distanceSquared = distanceSquared(segments.x1[segment], segments.y1[segment], segments.x2[segment], segments.y2[segment], minX, minY, maxX, maxY);
+
+					if (distanceSquared > limitSquared)
+						continue;
+
+					if (count == baked.cellSegments.length) {
+						baked.cellSegments = Arrays.copyOf(baked.cellSegments, count * 2);
+						baked.cellDistances = Arrays.copyOf(baked.cellDistances, count * 2);
+					}
+
+					baked.cellSegments[count] = segment;
+					baked.cellDistances[count] = Math.sqrt(distanceSquared);
+					count++;
+				}
+
+				baked.cellStart[cell + 1] = count;
+			}
+		}
+
+		baked.cellSegments = Arrays.copyOf(baked.cellSegments, count);
+		baked.cellDistances = Arrays.copyOf(baked.cellDistances, count);
+
+		sets = baked;
+	}
+
+	/**
+	 * Angle under which the segment appears from the given point
+	 */
+	private double getAngularSize(int segment, double px, double py) {
+
+		double ax = segments.x1[segment] - px;
+		double ay = segments.y1[segment] - py;
+		double bx = segments.x2[segment] - px;
+		double by = segments.y2[segment] - py;
+
+		return Math.abs(Math.atan2(ax * by - ay * bx, ax * bx + ay * by));
+	}
+
+	/**
+	 * Set the line of the occluder at the given offset, with the normal pointing to the cell
+	 *
+	 * @return false if the line passes through the cell or comes closer than the tolerance, then it can't hide anything
+	 *         from the whole cell
+	 */
+	private boolean setLine(int occluder, double[] lines, int offset, double minX, double minY, double maxX, double maxY) {
+
+		double dx = segments.x2[occluder] - segments.x1[occluder];
+		double dy = segments.y2[occluder] - segments.y1[occluder];
+
+		double length = Math.hypot(dx, dy);
+
+		if (length == 0)
+			return false;
+
+		double a = -dy / length;
+		double b = dx / length;
+		double c = -(a * segments.x1[occluder] + b * segments.y1[occluder]);
+
+		double d0 = a * minX + b * minY + c;
+		double d1 = a * maxX + b * minY + c;
+		double d2 = a * maxX + b * maxY + c;
+		double d3 = a * minX + b * maxY + c;
+
+		double sign;
+
+		if (Math.min(Math.min(d0, d1), Math.min(d2, d3)) > SHADOW_TOLERANCE) {
+			sign = 1;
+		} else if (Math.max(Math.max(d0, d1), Math.max(d2, d3)) < -SHADOW_TOLERANCE) {
+			sign = -1;
+		} else {
+			return false;
+		}
+
+		lines[offset] = sign * a;
+		lines[offset + 1] = sign * b;
+		lines[offset + 2] = sign * c;
+
+		return true;
+	}
+
+	/**
+	 * Check if one of the occluders hides the segment from the whole cell: both end points lie behind the occluder's
+	 * line and within the cones from the cell corners through the occluder. The occluder which hid the previous segment
+	 * is moved to the front, neighboring segments are often hidden by the same one.
+	 */
+	private boolean isHidden(int segment, int[] occluders, double[] occluderLines, int occluderCount, double minX, double minY, double maxX, double maxY) {
+
+		double ax = segments.x1[segment];
+		double ay = segments.y1[segment];
+		double bx = segments.x2[segment];
+		double by = segments.y2[segment];
+
+		for (int i = 0; i < occluderCount; i++) {
+
+			// behind the occluder, i. e. on the other side than the cell
+			double a = occluderLines[i * 3];
+			double b = occluderLines[i * 3 + 1];
+			double c = occluderLines[i * 3 + 2];
+
+			if (a * ax + b * ay + c >= -SHADOW_TOLERANCE || a * bx + b * by + c >= -SHADOW_TOLERANCE)
+				continue;
+
+			int occluder = occluders[i];
+
+			double ox1 = segments.x1[occluder];
+			double oy1 = segments.y1[occluder];
+			double ox2 = segments.x2[occluder];
+			double oy2 = segments.y2[occluder];
+
+			if (isInCone(minX, minY, ax, ay, bx, by, ox1, oy1, ox2, oy2) //
+					&& isInCone(maxX, minY, ax, ay, bx, by, ox1, oy1, ox2, oy2) //
+					&& isInCone(maxX, maxY, ax, ay, bx, by, ox1, oy1, ox2, oy2) //
+					&& isInCone(minX, maxY, ax, ay, bx, by, ox1, oy1, ox2, oy2)) {
+
+				if (i > 0) {
+					occluders[i] = occluders[0];
+					occluders[0] = occluder;
+
+					for (int k = 0; k < 3; k++) {
+						double value = occluderLines[i * 3 + k];
+						occluderLines[i * 3 + k] = occluderLines[k];
+						occluderLines[k] = value;
+					}
+				}
+
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Check if both end points of the segment a-b lie in the cone from p through the occluder o1-o2
+	 */
+	private static boolean isInCone(double px, double py, double ax, double ay, double bx, double by, double ox1, double oy1, double ox2, double oy2) {
+		return isInCone(px, py, ax, ay, ox1, oy1, ox2, oy2) && isInCone(px, py, bx, by, ox1, oy1, ox2, oy2);
+	}
+
+	/**
+	 * Check if the occluder end points lie on different sides of the line from p to q, each at least the tolerance away
+	 * from it. Together with p and q on different sides of the occluder's line that means the line from p to q crosses
+	 * the occluder.
+	 */
+	private static boolean isInCone(double px, double py, double qx, double qy, double ox1, double oy1, double ox2, double oy2) {
+
+		double dx = qx - px;
+		double dy = qy - py;
+
+		double toleranceSquared = SHADOW_TOLERANCE * SHADOW_TOLERANCE * (dx * dx + dy * dy);
+
+		double side1 = dx * (oy1 - py) - dy * (ox1 - px);
+		double side2 = dx * (oy2 - py) - dy * (ox2 - px);
+
+		return side1 * side2 < 0 && side1 * side1 > toleranceSquared && side2 * side2 > toleranceSquared;
+	}
+
+	/**
+	 * Squared distance between the segment a-b and the rectangle, 0 if they intersect
+	 */
+	static double distanceSquared(double ax, double ay, double bx, double by, double minX, double minY, double maxX, double maxY) {
+
+		// an end point inside the rectangle
+		if (ax >= minX && ax <= maxX && ay >= minY && ay <= maxY)
+			return 0;
+
+		// the segment crosses one of the rectangle edges
+		if (Algorithm.getRayIntersection(ax, ay, bx - ax, by - ay, minX, minY, maxX, minY) != Double.POSITIVE_INFINITY //
+				|| Algorithm.getRayIntersection(ax, ay, bx - ax, by - ay, maxX, minY, maxX, maxY) != Double.POSITIVE_INFINITY //
+				|| Algorithm.getRayIntersection(ax, ay, bx - ax, by - ay, maxX, maxY, minX, maxY) != Double.POSITIVE_INFINITY //
+				|| Algorithm.getRayIntersection(ax, ay, bx - ax, by - ay, minX, maxY, minX, minY) != Double.POSITIVE_INFINITY)
+			return 0;
+
+		// otherwise the closest points are an end point of the segment and a point of the rectangle or a corner of the
+		// rectangle and a point of the segment
+		double distance = Math.min(pointRectangle(ax, ay, minX, minY, maxX, maxY), pointRectangle(bx, by, minX, minY, maxX, maxY));
+
+		distance = Math.min(distance, pointSegment(minX, minY, ax, ay, bx, by));
+		distance = Math.min(distance, pointSegment(maxX, minY, ax, ay, bx, by));
+		distance = Math.min(distance, pointSegment(maxX, maxY, ax, ay, bx, by));
+		distance = Math.min(distance, pointSegment(minX, maxY, ax, ay, bx, by));
+
+		return distance;
+	}
+
+	private static double pointRectangle(double px, double py, double minX, double minY, double maxX, double maxY) {
+
+		double dx = Math.max(0, Math.max(minX - px, px - maxX));
+		double dy = Math.max(0, Math.max(minY - py, py - maxY));
+
+		return dx * dx + dy * dy;
+	}
+
+	private static double pointSegment(double px, double py, double ax, double ay, double bx, double by) {
+
+		double dx = bx - ax;
+		double dy = by - ay;
+
+		double lengthSquared = dx * dx + dy * dy;
+		double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / lengthSquared));
+
+		double x = ax + t * dx - px;
+		double y = ay + t * dy - py;
+
+		return x * x + y * y;
+	}
+
+	/**
+	 * The segments of the viewer's cell set within the range. Viewers outside of the grid use all segments.
+	 */
+	@Override
+	public SegmentIndex select(double viewerX, double viewerY, double range, SegmentCandidates candidates) {
+
+		Sets current = sets;
+
+		if (current == null || current.range < range) {
+			bake();
+			current = sets;
+		}
+
+		int col = (int) Math.floor((viewerX - current.minX) / cellSize);
+		int row = (int) Math.floor((viewerY - current.minY) / cellSize);
+
+		if (col < 0 || col >= current.cols || row < 0 || row >= current.rows)
+			return segments;
+
+		int cell = row * current.cols + col;
+
+		candidates.collect(segments, current.cellSegments, current.cellDistances, current.cellStart[cell], current.cellStart[cell + 1], range);
+
+		return candidates;
+	}
+
+	/**
+	 * Number of segments in all sets, i. e. the size of the baked data
+	 */
+	public int getSetEntryCount() {
+
+		Sets current = sets;
+
+		return current == null ? 0 : current.cellSegments.length;
+	}
+
+	@Override
+	public double getClosestHit(double startX, double startY, double dx, double dy) {
+		return segments.getClosestHit(startX, startY, dx, dy);
+	}
+
+	@Override
+	public boolean getClosestHit(double startX, double startY, double dx, double dy, RayHit hit) {
+		return segments.getClosestHit(startX, startY, dx, dy, hit);
+	}
+
+	@Override
+	public double getHit(int segment, double startX, double startY, double dx, double dy) {
+		return segments.getHit(segment, startX, startY, dx, dy);
+	}
+
+}
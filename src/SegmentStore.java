@@ -0,0 +1,131 @@
+package LineofSight;
+
+import java.util.Arrays;
+
+/**
+ * Scene segments as primitive coordinate arrays. Segment i goes from (x1[i], y1[i]) to (x2[i], y2[i]).
+ *
+ * Compared to a list of lines with two vectors each, the coordinates lie next to each other in memory and the
+ * intersection loops don't have to follow any references. Used as index, the store tests all segments sequentially.
+ */
+public class SegmentStore implements SegmentIndex {
+
+	double[] x1;
+	double[] y1;
+	double[] x2;
+	double[] y2;
+
+	int size = 0;
+
+	public SegmentStore() {
+		this(256);
+	}
+
+	public SegmentStore(int capacity) {
+
+		capacity = Math.max(1, capacity);
+
+		x1 = new double[capacity];
+		y1 = new double[capacity];
+		x2 = new double[capacity];
+		y2 = new double[capacity];
+	}
+
+	public void add(double startX, double startY, double endX, double endY) {
+
+		if (size == x1.length) {
+			int capacity = x1.length * 2;
+			x1 = Arrays.copyOf(x1, capacity);
+			y1 = Arrays.copyOf(y1, capacity);
+			x2 = Arrays.copyOf(x2, capacity);
+			y2 = Arrays.copyOf(y2, capacity);
+		}
+
+		x1[size] = startX;
+		y1[size] = startY;
+		x2[size] = endX;
+		y2[size] = endY;
+
+		size++;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public double getStartX(int index) {
+		return x1[index];
+	}
+
+	public double getStartY(int index) {
+		return y1[index];
+	}
+
+	public double getEndX(int index) {
+		return x2[index];
+	}
+
+	public double getEndY(int index) {
+		return y2[index];
+	}
+
+	/**
+	 * Brute force: test every segment.
+	 */
+	@Override
+	public double getClosestHit(double startX, double startY, double dx, double dy) {
+		return getClosestHit(startX, startY, dx, dy, Double.POSITIVE_INFINITY, null);
+	}
+
+	@Override
+	public boolean getClosestHit(double startX, double startY, double dx, double dy, RayHit hit) {
+
+		double bound = hit.t;
+
+		return getClosestHit(startX, startY, dx, dy, bound, hit) < bound;
+	}
+
+	/**
+	 * Closest hit before the given bound, stored in the given hit if it isn't null
+	 */
+	private double getClosestHit(double startX, double startY, double dx, double dy, double closest, RayHit hit) {
+
+		VisibilityCounters.addSegmentTests(size);
+
+		int segment = -1;
+
+		for (int i = 0; i < size; i++) {
+
+			double t = Algorithm.getRayIntersection(startX, startY, dx, dy, x1[i], y1[i], x2[i], y2[i]);
+
+			if (t < closest) {
+				closest = t;
+				segment = i;
+			}
+		}
+
+		if (hit != null && segment != -1) {
+			hit.set(closest, segment);
+		}
+
+		return closest;
+	}
+
+	@Override
+	public double getHit(int segment, double startX, double startY, double dx, double dy) {
+		return Algorithm.getRayIntersection(startX, startY, dx, dy, x1[segment], y1[segment], x2[segment], y2[segment]);
+	}
+
+	public Line getLine(int index) {
+		return new Line(new PVector(x1[index], y1[index]), new PVector(x2[index], y2[index]));
+	}
+
+}
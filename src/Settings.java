@@ -1,5 +1,6 @@
 package LineofSight;
 
+import javafx.beans.Observable;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.IntegerProperty;
@@ -12,6 +13,7 @@ import javafx.beans.property.SimpleObjectProperty;
 import javafx.geometry.Insets;
 import javafx.scene.Node;
 import javafx.scene.control.CheckBox;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.Separator;
 import javafx.scene.control.Slider;
@@ -60,17 +62,35 @@ public class Settings {
 	private BooleanProperty highlightGridCell = new SimpleBooleanProperty(false);
 	private IntegerProperty lineCount = new SimpleIntegerProperty( 0);
 	private IntegerProperty roomIterations = new SimpleIntegerProperty( 100);
+	private BooleanProperty optimizeScene = new SimpleBooleanProperty( true);
 	private BooleanProperty environmentVisible = new SimpleBooleanProperty(true);
 	private BooleanProperty userVisible = new SimpleBooleanProperty(true);
 	private DoubleProperty scanLineLength = new SimpleDoubleProperty(200);
 	private BooleanProperty drawPoints = new SimpleBooleanProperty( true);
 	private BooleanProperty drawShape = new SimpleBooleanProperty( true);
 	private BooleanProperty gradientShapeFill = new SimpleBooleanProperty(false);
+	private BooleanProperty rasterMask = new SimpleBooleanProperty(false);
 	private BooleanProperty shapeBorderVisible = new SimpleBooleanProperty(true);
 	private BooleanProperty drawScanLines = new SimpleBooleanProperty( false);
 	private BooleanProperty limitToScanLineLength = new SimpleBooleanProperty( true);
 	private IntegerProperty scanLineCount = new SimpleIntegerProperty( 1000);
+	private IntegerProperty coarseScanLineCount = new SimpleIntegerProperty( AdaptiveScanLineEngine.COARSE_SCAN_LINES);
+	private ObjectProperty<VisibilityEngineType> visibilityEngine = new SimpleObjectProperty<>( VisibilityEngineType.SCAN_LINES);
+	private ObjectProperty<SpatialIndexType> spatialIndex = new SimpleObjectProperty<>( SpatialIndexType.GRID);
+	
+	// parallel ray casting
+	// -------------------------------
+	private IntegerProperty workerCount = new SimpleIntegerProperty( Runtime.getRuntime().availableProcessors());
+	private IntegerProperty chunkSize = new SimpleIntegerProperty( 64);
 
+	// diagnostics
+	// -------------------------------
+	private BooleanProperty timingsVisible = new SimpleBooleanProperty( false);
+
+	/**
+	 * Number of changes of any of the settings properties. Allows to check whether cached results are still valid.
+	 */
+	private long revision = 0;
 	
 	// ================================================================================================
 	// methods
@@ -81,6 +101,12 @@ public class Settings {
 	private static Settings settings = new Settings();
 	
 	private Settings() {
+		
+		Observable[] properties = { gridHorizontalCellCount, highlightGridCell, lineCount, roomIterations, optimizeScene, environmentVisible, userVisible, scanLineLength, drawPoints, drawShape, gradientShapeFill, rasterMask, shapeBorderVisible, drawScanLines, limitToScanLineLength, scanLineCount, coarseScanLineCount, visibilityEngine, spatialIndex, workerCount, chunkSize, timingsVisible };
+		
+		for( Observable property: properties) {
+			property.addListener( observable -> revision++);
+		}
 	}
 	
 	/**
@@ -131,6 +157,7 @@ public class Settings {
 
 		addNumberSlider( "Lines", 0, lineCount, 0, 150);
 		addNumberSlider( "Room Iterations", 0, roomIterations, 0, 4000);
+		addCheckBox( "Optimize", optimizeScene);
 		addCheckBox( "Environment Visible", environmentVisible);
 		addCheckBox( "User Visible", userVisible);
 
@@ -141,7 +168,10 @@ public class Settings {
 		addCheckBox( "Shape", drawShape);
 		addCheckBox( "Shape Border", shapeBorderVisible);
 		addCheckBox( "Gradient Fill", gradientShapeFill);
+		addCheckBox( "Raster Mask", rasterMask);
 		addCheckBox( "Limit", limitToScanLineLength);
+		addChoiceBox( "Engine", visibilityEngine, VisibilityEngineType.values());
+		addChoiceBox( "Index", spatialIndex, SpatialIndexType.values());
 		
 		// group 2
 		// -------------------------------------
@@ -149,10 +179,24 @@ public class Settings {
 
 		addCheckBox( "Scanlines Visible", drawScanLines);
 		addNumberSlider( "Count", 0, scanLineCount, 1, 2000);
+		addNumberSlider( "Coarse Count", 0, coarseScanLineCount, 1, 2000);
 		
 		double maxLength = Math.sqrt( getCanvasWidth() * getCanvasWidth() + getCanvasHeight() * getCanvasHeight());
 		addNumberSlider( "Length", 0, scanLineLength, 1, maxLength);
 
+		// Parallel
+		// -------------------------------------
+		addSeparator( "Parallel");
+
+		addNumberSlider( "Workers", 0, workerCount, 1, Math.max( 2, Runtime.getRuntime().availableProcessors()));
+		addNumberSlider( "Chunk Size", 0, chunkSize, 1, 512);
+
+		// Diagnostics
+		// -------------------------------------
+		addSeparator( "Diagnostics");
+
+		addCheckBox( "Timings", timingsVisible);
+
 		return gp;
 	}
 
@@ -189,6 +233,11 @@ public class Settings {
 		gp.addRow(rowIndex++, new Label( text), checkBox);
 	}
 	
+	private <T> void addChoiceBox( String text, Property<T> observable, T[] values) {
+		ChoiceBox<T> choiceBox = createChoiceBox( observable, values);
+		gp.addRow(rowIndex++, new Label( text), choiceBox);
+	}
+	
 	// ------------------------------------------------------------------------------------------------
 	// gui helper methods
 	// ------------------------------------------------------------------------------------------------
@@ -234,6 +283,16 @@ public class Settings {
 		
 	}
 	
+	private <T> ChoiceBox<T> createChoiceBox( Property<T> observable, T[] values) {
+		
+		ChoiceBox<T> choiceBox = new ChoiceBox<>();
+		choiceBox.getItems().addAll( values);
+		choiceBox.valueProperty().bindBidirectional(observable);
+		
+		return choiceBox;
+		
+	}
+	
 	// ================================================================================================
 	// auto-generated begin
 	// ================================================================================================
@@ -320,6 +379,10 @@ public class Settings {
 		return this.lineCount.get();
 	}
 
+	public final void setLineCount(final int lineCount) {
+		this.lineCount.set(lineCount);
+	}
+
 
 	public final IntegerProperty horizontalCellCountProperty() {
 		return this.gridHorizontalCellCount;
@@ -340,6 +403,9 @@ public class Settings {
 	public double getScanLineLength() {
 		return scanLineLength.get();
 	}
+	public void setScanLineLength(double scanLineLength) {
+		this.scanLineLength.set(scanLineLength);
+	}
 	public boolean isDrawShape() {
 		return drawShape.get();
 	}
@@ -350,10 +416,36 @@ public class Settings {
 	public boolean isLimitToScanLineLength() {
 		return limitToScanLineLength.get();
 	}
+	public void setLimitToScanLineLength(boolean limitToScanLineLength) {
+		this.limitToScanLineLength.set(limitToScanLineLength);
+	}
 	
+	public final IntegerProperty scanLineCountProperty() {
+		return this.scanLineCount;
+	}
+
 	public int getScanLineCount() {
 		return scanLineCount.get();
 	}
+	public void setScanLineCount(int scanLineCount) {
+		this.scanLineCount.set(scanLineCount);
+	}
+
+	/**
+	 * Scan lines of the initial fan of the adaptive engine. More scan lines find smaller features which lie between
+	 * them, fewer scan lines cast fewer rays.
+	 */
+	public final IntegerProperty coarseScanLineCountProperty() {
+		return this.coarseScanLineCount;
+	}
+
+	public final int getCoarseScanLineCount() {
+		return this.coarseScanLineCountProperty().get();
+	}
+
+	public final void setCoarseScanLineCount(final int coarseScanLineCount) {
+		this.coarseScanLineCountProperty().set(coarseScanLineCount);
+	}
 
 	public final BooleanProperty highlightGridCellProperty() {
 		return this.highlightGridCell;
@@ -391,6 +483,18 @@ public class Settings {
 		this.gradientShapeFillProperty().set(gradientShapeFill);
 	}
 
+	public final BooleanProperty rasterMaskProperty() {
+		return this.rasterMask;
+	}
+
+	public final boolean isRasterMask() {
+		return this.rasterMaskProperty().get();
+	}
+
+	public final void setRasterMask(final boolean rasterMask) {
+		this.rasterMaskProperty().set(rasterMask);
+	}
+
 	public final BooleanProperty shapeBorderVisibleProperty() {
 		return this.shapeBorderVisible;
 	}
@@ -415,6 +519,18 @@ public class Settings {
 		this.userVisibleProperty().set(userVisible);
 	}
 
+	public final BooleanProperty optimizeSceneProperty() {
+		return this.optimizeScene;
+	}
+
+	public final boolean isOptimizeScene() {
+		return this.optimizeSceneProperty().get();
+	}
+
+	public final void setOptimizeScene(final boolean optimizeScene) {
+		this.optimizeSceneProperty().set(optimizeScene);
+	}
+
 	public final IntegerProperty roomIterationsProperty() {
 		return this.roomIterations;
 	}
@@ -427,6 +543,70 @@ public class Settings {
 		this.roomIterationsProperty().set(roomIterations);
 	}
 
+	public final ObjectProperty<VisibilityEngineType> visibilityEngineProperty() {
+		return this.visibilityEngine;
+	}
+
+	public final VisibilityEngineType getVisibilityEngine() {
+		return this.visibilityEngineProperty().get();
+	}
+
+	public final void setVisibilityEngine(final VisibilityEngineType visibilityEngine) {
+		this.visibilityEngineProperty().set(visibilityEngine);
+	}
+
+	public final ObjectProperty<SpatialIndexType> spatialIndexProperty() {
+		return this.spatialIndex;
+	}
+
+	public final SpatialIndexType getSpatialIndex() {
+		return this.spatialIndexProperty().get();
+	}
+
+	public final void setSpatialIndex(final SpatialIndexType spatialIndex) {
+		this.spatialIndexProperty().set(spatialIndex);
+	}
+
+	public final IntegerProperty workerCountProperty() {
+		return this.workerCount;
+	}
+
+	public final int getWorkerCount() {
+		return this.workerCountProperty().get();
+	}
+
+	public final void setWorkerCount(final int workerCount) {
+		this.workerCountProperty().set(workerCount);
+	}
+
+	public final IntegerProperty chunkSizeProperty() {
+		return this.chunkSize;
+	}
+
+	public final int getChunkSize() {
+		return this.chunkSizeProperty().get();
+	}
+
+	public final void setChunkSize(final int chunkSize) {
+		this.chunkSizeProperty().set(chunkSize);
+	}
+
+	public final BooleanProperty timingsVisibleProperty() {
+		return this.timingsVisible;
+	}
+
+	public final boolean isTimingsVisible() {
+		return this.timingsVisibleProperty().get();
+	}
+
+	public final void setTimingsVisible(final boolean timingsVisible) {
+		this.timingsVisibleProperty().set(timingsVisible);
+	}
+
+	public long getRevision() {
+		return revision;
+	}
+
 	public Color getBackgroundColor() {
 		return backgroundColor;
 	}
@@ -0,0 +1,80 @@
+package LineofSight;
+
+/**
+ * Spatial index used for the intersection tests of the scan lines
+ */
+public enum SpatialIndexType {
+
+	NONE("None"),
+	VECTOR("Vector"),
+	RANGE("Range Culled"),
+	PVS("PVS"),
+	PORTALS("Portals"),
+	GRID("Grid"),
+	BVH("BVH");
+
+	private final String text;
+
+	SpatialIndexType(String text) {
+		this.text = text;
+	}
+
+	public String toString() {
+		return text;
+	}
+
+	/**
+	 * Create the index of this type over the given segments. The segment store itself is the brute force index, the
+	 * vector index is the brute force index using the Vector API if available and the range culled index is the brute
+	 * force index over the segments in range of the viewer, which are found with a grid. The PVS uses sets of those
+	 * segments which are precomputed per grid cell.
+	 *
+	 * @param segments
+	 * @param cellSize
+	 *            cell size of the grids and the PVS
+	 */
+	public SegmentIndex createIndex(SegmentStore segments, double cellSize) {
+		return createIndex(segments, null, cellSize);
+	}
+
+	/**
+	 * Create the index of this type over the given segments. The portal index uses the rooms and doors of the level;
+	 * without them, e. g. for a loaded level, it falls back to the range culled index.
+	 *
+	 * @param segments
+	 * @param portalGraph
+	 *            rooms and doors of the level, may be null
+	 * @param cellSize
+	 *            cell size of the grid, the PVS and the rooms
+	 */
+	public SegmentIndex createIndex(SegmentStore segments, PortalGraph portalGraph, double cellSize) {
+
+		switch (this) {
+
+		case GRID:
+			return new SceneGrid(segments, cellSize);
+
+		case BVH:
+			return new SegmentBvh(segments);
+
+		case PVS:
+			return new SegmentPvs(segments, cellSize);
+
+		case PORTALS:
+			if (portalGraph == null) {
+				return new RangeCulledIndex(segments, cellSize);
+			}
+			return new PortalIndex(segments, portalGraph, cellSize);
+
+		case RANGE:
+			return new RangeCulledIndex(segments, cellSize);
+
+		case VECTOR:
+			return VectorSupport.createIndex(segments);
+
+		default:
+			return segments;
+
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package LineofSight;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * Access to the optional Vector API kernel. The kernel is compiled separately from src-vector for Java 17+ and needs
+ * the incubator module at runtime (--add-modules jdk.incubator.vector). If it is missing, the scalar segment store is
+ * used instead.
+ */
+public class VectorSupport {
+
+	private static final Constructor<?> CONSTRUCTOR = load();
+
+	private static Constructor<?> load() {
+
+		try {
+
+			// initializing the class fails if the vector module isn't available
+			Class<?> kernel = Class.forName("LineofSight.VectorSegmentIndex");
+
+			return kernel.getConstructor(SegmentStore.class);
+
+		} catch (ClassNotFoundException | NoSuchMethodException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Check if the vector kernel can be used in this JVM
+	 */
+	public static boolean isAvailable() {
+		return CONSTRUCTOR != null;
+	}
+
+	/**
+	 * Create the brute force index using the vector kernel if available, otherwise the scalar segment store.
+	 */
+	public static SegmentIndex createIndex(SegmentStore segments) {
+
+		if (CONSTRUCTOR == null)
+			return segments;
+
+		try {
+			return (SegmentIndex) CONSTRUCTOR.newInstance(segments);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Vector kernel can't be created", e);
+		}
+	}
+
+}
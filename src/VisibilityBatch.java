@@ -0,0 +1,564 @@
+package LineofSight;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Headless batch mode: loads or generates a level, calculates the visibility polygons for a list of viewer positions
+ * and writes them together with timing statistics to stdout or a file. Doesn't use JavaFX, so it runs on machines
+ * without a display.
+ *
+ * Level files contain one segment "x1 y1 x2 y2" per line, viewer files one position "x y" per line. Empty lines and
+ * lines starting with # are skipped.
+ *
+ * The output has one line per viewer: "x y n x0 y0 ... xn-1 yn-1" with the viewer position, the number of polygon
+ * vertices and the vertices. Header and statistics are written as lines starting with #.
+ */
+public class VisibilityBatch {
+
+	// level
+	String levelFile = null;
+	double width = 980;
+	double height = 720;
+	double cellSize = 980.0 / 60;
+	int lineCount = 0;
+	int roomIterations = 100;
+	long seed = new Random().nextLong();
+	boolean optimize = false;
+
+	// viewers
+	String viewerFile = null;
+	int randomViewerCount = 100;
+
+	// visibility
+	VisibilityEngineType engineType = VisibilityEngineType.SCAN_LINES;
+	SpatialIndexType indexType = SpatialIndexType.GRID;
+	int scanLineCount = 1000;
+	int coarseScanLineCount = AdaptiveScanLineEngine.COARSE_SCAN_LINES;
+	double scanLineLength = 200;
+	boolean limitToScanLineLength = true;
+	int workerCount = Runtime.getRuntime().availableProcessors();
+	int chunkSize = 64;
+
+	// all viewers in one parallel call
+	boolean batch = false;
+
+	// queries per viewer before the measurement
+	int warmup = 0;
+
+	String outputFile = null;
+
+	// raster masks of the polygons and their union, null if not requested
+	boolean rasterMask = false;
+	VisibilityMask mask = null;
+	VisibilityMask maskUnion = null;
+	long maskNanos = 0;
+	long maskPixels = 0;
+
+	public static void main(String[] args) {
+
+		VisibilityBatch batch = new VisibilityBatch();
+
+		try {
+
+			batch.parseArguments(args);
+			batch.run();
+
+		} catch (IllegalArgumentException e) {
+
+			System.err.println(e.getMessage());
+			System.err.println();
+			printUsage();
+
+			System.exit(1);
+
+		} catch (IOException e) {
+
+			System.err.println(e.getMessage());
+
+			System.exit(1);
+		}
+	}
+
+	private static void printUsage() {
+		System.err.println("Usage: VisibilityBatch [options]");
+		System.err.println();
+		System.err.println("Level:");
+		System.err.println("  --level <file>          load the segments \"x1 y1 x2 y2\" from the file");
+		System.err.println("  --width <w>             width of a generated level, default 980");
+		System.err.println("  --height <h>            height of a generated level, default 720");
+		System.err.println("  --cell-size <size>      grid cell size, default 980/60");
+		System.err.println("  --lines <count>         random lines of a generated level, default 0");
+		System.err.println("  --rooms <iterations>    room iterations of a generated level, default 100");
+		System.err.println("  --seed <seed>           seed of the generated level and viewers, default random");
+		System.err.println("  --optimize              merge collinear segments, remove duplicates and zero length segments");
+		System.err.println("Viewers:");
+		System.err.println("  --viewers <file>        load the viewer positions \"x y\" from the file");
+		System.err.println("  --random-viewers <n>    number of random viewers within the level bounds, default 100");
+		System.err.println("Visibility:");
+		System.err.println("  --engine <type>         " + Arrays.toString(VisibilityEngineType.values()) + " by constant name, default SCAN_LINES");
+		System.err.println("  --index <type>          " + Arrays.toString(SpatialIndexType.values()) + " by constant name, default GRID");
+		System.err.println("  --scan-lines <count>    scan line count, default 1000");
+		System.err.println("  --coarse-scan-lines <count>");
+		System.err.println("                          initial scan lines of the adaptive engine, default " + AdaptiveScanLineEngine.COARSE_SCAN_LINES);
+		System.err.println("  --range <length>        scan line length, default 200");
+		System.err.println("  --unlimited             don't bound the polygon by the scan line length");
+		System.err.println("  --workers <count>       workers of the parallel engine, default number of processors");
+		System.err.println("  --chunk-size <count>    scan lines per task of the parallel engine, default 64");
+		System.err.println("  --batch                 scan lines of all viewers in one parallel call on the workers, instead of");
+		System.err.println("                          one engine query per viewer");
+		System.err.println("  --warmup <count>        queries per viewer before the measurement, default 0");
+		System.err.println("  --mask                  scan convert the polygons into raster masks which cover the level, one pixel");
+		System.err.println("                          per unit from the origin");
+		System.err.println("Output:");
+		System.err.println("  --output <file>         write to the file instead of stdout");
+	}
+
+	void parseArguments(String[] args) {
+
+		for (int i = 0; i < args.length; i++) {
+
+			String arg = args[i];
+
+			switch (arg) {
+
+			case "--level":
+				levelFile = value(args, ++i, arg);
+				break;
+
+			case "--width":
+				width = Double.parseDouble(value(args, ++i, arg));
+				break;
+
+			case "--height":
+				height = Double.parseDouble(value(args, ++i, arg));
+				break;
+
+			case "--cell-size":
+				cellSize = Double.parseDouble(value(args, ++i, arg));
+				break;
+
+			case "--lines":
+				lineCount = Integer.parseInt(value(args, ++i, arg));
+				break;
+
+			case "--rooms":
+				roomIterations = Integer.parseInt(value(args, ++i, arg));
+				break;
+
+			case "--seed":
+				seed = Long.parseLong(value(args, ++i, arg));
+				break;
+
+			case "--optimize":
+				optimize = true;
+				break;
+
+			case "--viewers":
+				viewerFile = value(args, ++i, arg);
+				break;
+
+			case "--random-viewers":
+				randomViewerCount = Integer.parseInt(value(args, ++i, arg));
+				break;
+
+			case "--engine":
+				engineType = VisibilityEngineType.valueOf(value(args, ++i, arg).toUpperCase(Locale.ROOT));
+				break;
+
+			case "--index":
+				indexType = SpatialIndexType.valueOf(value(args, ++i, arg).toUpperCase(Locale.ROOT));
+				break;
+
+			case "--scan-lines":
+				scanLineCount = Integer.parseInt(value(args, ++i, arg));
+				break;
+
+			case "--coarse-scan-lines":
+				coarseScanLineCount = Integer.parseInt(value(args, ++i, arg));
+				break;
+
+			case "--range":
+				scanLineLength = Double.parseDouble(value(args, ++i, arg));
+				break;
+
+			case "--unlimited":
+				limitToScanLineLength = false;
+				break;
+
+			case "--workers":
+				workerCount = Integer.parseInt(value(args, ++i, arg));
+				break;
+
+			case "--chunk-size":
+				chunkSize = Integer.parseInt(value(args, ++i, arg));
+				break;
+
+			case "--batch":
+				batch = true;
+				break;
+
+			case "--warmup":
+				warmup = Integer.parseInt(value(args, ++i, arg));
+				break;
+
+			case "--mask":
+				rasterMask = true;
+				break;
+
+			case "--output":
+				outputFile = value(args, ++i, arg);
+				break;
+
+			default:
+				throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		}
+
+		if (scanLineCount < 1) {
+			throw new IllegalArgumentException("Scan line count must be at least 1");
+		}
+
+		if (coarseScanLineCount < 1) {
+			throw new IllegalArgumentException("Coarse scan line count must be at least 1");
+		}
+
+		if (cellSize <= 0) {
+			throw new IllegalArgumentException("Cell size must be positive");
+		}
+	}
+
+	private static String value(String[] args, int index, String option) {
+
+		if (index >= args.length) {
+			throw new IllegalArgumentException("Missing value for " + option);
+		}
+
+		return args[index];
+	}
+
+	void run() throws IOException {
+
+		// scene
+		SegmentStore segments;
+
+		// the rooms and doors are only known for generated levels
+		PortalGraph portalGraph = null;
+
+		// the area of the level, for the random viewers and the masks
+		Rect bounds;
+
+		if (levelFile != null) {
+			segments = readSegments(levelFile);
+			bounds = getBounds(segments);
+		} else {
+			bounds = new Rect(0, 0, width, height);
+
+			LevelGenerator levelGenerator = new LevelGenerator(width, height, cellSize, seed);
+			levelGenerator.generate(lineCount, roomIterations);
+			segments = levelGenerator.getSegments();
+			portalGraph = levelGenerator.getPortalGraph();
+		}
+
+		ScenePreprocessor preprocessor = null;
+
+		if (optimize) {
+			preprocessor = new ScenePreprocessor();
+			segments = preprocessor.process(segments);
+		}
+
+		double[] viewers = viewerFile != null ? readViewers(viewerFile) : createRandomViewers(bounds);
+		int viewerCount = viewers.length / 2;
+
+		double[] viewerX = new double[viewerCount];
+		double[] viewerY = new double[viewerCount];
+
+		for (int i = 0; i < viewerCount; i++) {
+			viewerX[i] = viewers[i * 2];
+			viewerY[i] = viewers[i * 2 + 1];
+		}
+
+		// engine
+		ParallelRayCaster rayCaster = new ParallelRayCaster(workerCount, chunkSize);
+
+		long start = System.nanoTime();
+
+		RayDirections directions = new RayDirections(scanLineCount);
+		SegmentIndex index = indexType.createIndex(segments, portalGraph, cellSize);
+
+		// bake the sets as part of the build instead of the first query
+		if (index instanceof SegmentPvs) {
+			((SegmentPvs) index).bake(scanLineLength);
+		}
+
+		VisibilityEngine engine = engineType.createEngine(segments, index, directions, rayCaster, cellSize, coarseScanLineCount);
+
+		if (rasterMask) {
+			mask = new VisibilityMask((int) Math.ceil(bounds.getMaxX()), (int) Math.ceil(bounds.getMaxY()));
+			maskUnion = new VisibilityMask(mask.getWidth(), mask.getHeight());
+		}
+
+		long buildNanos = System.nanoTime() - start;
+
+		PrintWriter out = outputFile != null ? new PrintWriter(new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8)) : new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+
+		try {
+
+			out.println(String.format(Locale.ROOT, "# engine=%s index=%s scanLines=%d range=%s limited=%b segments=%d viewers=%d", batch ? "BATCH" : engineType.name(), indexType.name(), scanLineCount, scanLineLength, limitToScanLineLength, segments.size(), viewerCount));
+
+			if (levelFile == null) {
+				out.println(String.format(Locale.ROOT, "# level width=%s height=%s cellSize=%s lines=%d rooms=%d seed=%d", width, height, cellSize, lineCount, roomIterations, seed));
+			} else {
+				out.println(String.format(Locale.ROOT, "# level %s bounds=%s,%s..%s,%s", levelFile, bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY()));
+			}
+
+			if (preprocessor != null) {
+				out.println("# preprocessing " + preprocessor);
+			}
+
+			if (engineType == VisibilityEngineType.ADAPTIVE_SCAN_LINES && !batch) {
+				out.println("# coarse scan lines " + coarseScanLineCount);
+			}
+
+			StringBuilder sb = new StringBuilder();
+
+			if (batch) {
+
+				// all viewers in one parallel call, e. g. one simulation tick
+				PolygonBuffer[] polygons = new PolygonBuffer[viewerCount];
+
+				for (int w = 0; w < warmup; w++) {
+					rayCaster.getVisibilityPolygons(viewerX, viewerY, viewerCount, directions, scanLineLength, limitToScanLineLength, index, polygons);
+				}
+
+				start = System.nanoTime();
+				rayCaster.getVisibilityPolygons(viewerX, viewerY, viewerCount, directions, scanLineLength, limitToScanLineLength, index, polygons);
+				long batchNanos = System.nanoTime() - start;
+
+				long vertexCount = 0;
+
+				for (int i = 0; i < viewerCount; i++) {
+					vertexCount += polygons[i].size();
+					writePolygon(out, sb, viewerX[i], viewerY[i], polygons[i]);
+					addMask(polygons[i]);
+				}
+
+				// statistics
+				out.println(String.format(Locale.ROOT, "# build %.3f ms", buildNanos / 1_000_000.0));
+				out.println(String.format(Locale.ROOT, "# batch %d viewers %.3f ms, workers %d, vertices/query %.1f", viewerCount, batchNanos / 1_000_000.0, rayCaster.getParallelism(), viewerCount > 0 ? (double) vertexCount / viewerCount : 0));
+
+			} else {
+
+				PolygonBuffer points = new PolygonBuffer();
+
+				for (int w = 0; w < warmup; w++) {
+					for (int i = 0; i < viewerCount; i++) {
+						engine.getVisibilityPolygon(viewerX[i], viewerY[i], scanLineLength, limitToScanLineLength, points);
+					}
+				}
+
+				long[] queryNanos = new long[viewerCount];
+				long vertexCount = 0;
+
+				for (int i = 0; i < viewerCount; i++) {
+
+					start = System.nanoTime();
+					engine.getVisibilityPolygon(viewerX[i], viewerY[i], scanLineLength, limitToScanLineLength, points);
+					queryNanos[i] = System.nanoTime() - start;
+
+					vertexCount += points.size();
+
+					// formatting isn't part of the measurement
+					writePolygon(out, sb, viewerX[i], viewerY[i], points);
+					addMask(points);
+				}
+
+				// statistics
+				out.println(String.format(Locale.ROOT, "# build %.3f ms", buildNanos / 1_000_000.0));
+
+				if (viewerCount > 0) {
+
+					Arrays.sort(queryNanos);
+
+					long total = 0;
+					for (long nanos : queryNanos) {
+						total += nanos;
+					}
+
+					out.println(String.format(Locale.ROOT, "# queries %d total %.3f ms, min %.3f ms, median %.3f ms, mean %.3f ms, max %.3f ms, vertices/query %.1f", viewerCount, total / 1_000_000.0, queryNanos[0] / 1_000_000.0, queryNanos[viewerCount / 2] / 1_000_000.0, total / 1_000_000.0 / viewerCount, queryNanos[viewerCount - 1] / 1_000_000.0, (double) vertexCount / viewerCount));
+				}
+			}
+
+			if (VisibilityCounters.ENABLED) {
+
+				long rays = VisibilityCounters.getRayCount();
+
+				out.println(String.format(Locale.ROOT, "# counters rays %d, hits %d, segment tests %d, tests/ray %.1f", rays, VisibilityCounters.getHitCount(), VisibilityCounters.getSegmentTestCount(), rays == 0 ? 0 : (double) VisibilityCounters.getSegmentTestCount() / rays));
+			}
+
+			if (mask != null && viewerCount > 0) {
+				out.println(String.format(Locale.ROOT, "# mask %dx%d, mean %.3f ms, pixels/query %.1f, union %d pixels", mask.getWidth(), mask.getHeight(), maskNanos / 1_000_000.0 / viewerCount, (double) maskPixels / viewerCount, maskUnion.getVisibleCount()));
+			}
+
+		} finally {
+
+			out.flush();
+
+			if (outputFile != null) {
+				out.close();
+			}
+
+			rayCaster.shutdown();
+		}
+	}
+
+	/**
+	 * Scan convert the polygon into the mask and add it to the union of all viewers
+	 */
+	private void addMask(PolygonBuffer points) {
+
+		if (mask == null)
+			return;
+
+		long start = System.nanoTime();
+		mask.fill(points, -1);
+		maskNanos += System.nanoTime() - start;
+
+		maskPixels += mask.getVisibleCount();
+
+		maskUnion.or(mask);
+	}
+
+	/**
+	 * Write the line "x y n x0 y0 ... xn-1 yn-1" of a viewer
+	 */
+	private static void writePolygon(PrintWriter out, StringBuilder sb, double x, double y, PolygonBuffer points) {
+
+		sb.setLength(0);
+		sb.append(x).append(' ').append(y).append(' ').append(points.size());
+
+		for (int k = 0; k < points.size(); k++) {
+			sb.append(' ').append(points.getX(k)).append(' ').append(points.getY(k));
+		}
+
+		out.println(sb);
+	}
+
+	private double[] createRandomViewers(Rect bounds) {
+
+		// different sequence than the level, but the same seed reproduces both
+		Random rnd = new Random(~seed);
+
+		double[] viewers = new double[randomViewerCount * 2];
+
+		for (int i = 0; i < viewers.length; i += 2) {
+			viewers[i] = bounds.getMinX() + rnd.nextDouble() * bounds.getWidth();
+			viewers[i + 1] = bounds.getMinY() + rnd.nextDouble() * bounds.getHeight();
+		}
+
+		return viewers;
+	}
+
+	/**
+	 * Bounding box of the segments, an empty rectangle at the origin if there aren't any
+	 */
+	private static Rect getBounds(SegmentStore segments) {
+
+		if (segments.isEmpty())
+			return new Rect(0, 0, 0, 0);
+
+		double minX = Double.MAX_VALUE;
+		double minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE;
+		double maxY = -Double.MAX_VALUE;
+
+		for (int i = 0; i < segments.size; i++) {
+			minX = Math.min(minX, Math.min(segments.x1[i], segments.x2[i]));
+			minY = Math.min(minY, Math.min(segments.y1[i], segments.y2[i]));
+			maxX = Math.max(maxX, Math.max(segments.x1[i], segments.x2[i]));
+			maxY = Math.max(maxY, Math.max(segments.y1[i], segments.y2[i]));
+		}
+
+		return new Rect(minX, minY, maxX, maxY);
+	}
+
+	private static SegmentStore readSegments(String file) throws IOException {
+
+		SegmentStore segments = new SegmentStore();
+
+		for (double[] values : readNumbers(file, 4)) {
+			segments.add(values[0], values[1], values[2], values[3]);
+		}
+
+		return segments;
+	}
+
+	private static double[] readViewers(String file) throws IOException {
+
+		List<double[]> rows = readNumbers(file, 2);
+
+		double[] viewers = new double[rows.size() * 2];
+
+		for (int i = 0; i < rows.size(); i++) {
+			viewers[i * 2] = rows.get(i)[0];
+			viewers[i * 2 + 1] = rows.get(i)[1];
+		}
+
+		return viewers;
+	}
+
+	/**
+	 * Read the whitespace separated numbers of each line, skipping empty lines and # comments.
+	 */
+	private static List<double[]> readNumbers(String file, int count) throws IOException {
+
+		List<double[]> rows = new ArrayList<>();
+
+		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+
+			String line;
+			int lineNumber = 0;
+
+			while ((line = reader.readLine()) != null) {
+
+				lineNumber++;
+
+				line = line.trim();
+
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+
+				String[] tokens = line.split("[\\s,]+");
+
+				if (tokens.length != count) {
+					throw new IllegalArgumentException(file + ":" + lineNumber + ": expected " + count + " numbers, found " + tokens.length);
+				}
+
+				double[] values = new double[count];
+
+				for (int i = 0; i < count; i++) {
+					try {
+						values[i] = Double.parseDouble(tokens[i]);
+					} catch (NumberFormatException e) {
+						throw new IllegalArgumentException(file + ":" + lineNumber + ": invalid number " + tokens[i]);
+					}
+				}
+
+				rows.add(values);
+			}
+		}
+
+		return rows;
+	}
+
+}
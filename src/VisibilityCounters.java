@@ -0,0 +1,163 @@
+package LineofSight;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Workload counters of the visibility queries and the level generation, exposed by {@link VisibilityStats}. The
+ * counters are LongAdders, so the ray casting threads don't contend for them, and the hot paths add their counts in
+ * bulk: the kernels of the indices once per ray, the ray loops once per polygon or chunk.
+ *
+ * The counters can be switched off with -Dlineofsight.counters=false. The flag is a constant, so the JIT removes the
+ * counting code completely.
+ */
+public class VisibilityCounters {
+
+	public static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("lineofsight.counters"));
+
+	static final LongAdder RAYS = new LongAdder();
+	static final LongAdder HITS = new LongAdder();
+	static final LongAdder SEGMENT_TESTS = new LongAdder();
+
+	static final LongAdder LEVELS = new LongAdder();
+	static final LongAdder LEVEL_NANOS = new LongAdder();
+	static volatile long lastLevelNanos = 0;
+
+	/**
+	 * Segments of the last generated level and of the scene the queries run against, fewer if the preprocessor
+	 * removed some
+	 */
+	static volatile int levelSegmentCount = 0;
+	static volatile int sceneSegmentCount = 0;
+
+	static final LongAdder FRAMES = new LongAdder();
+	static final LongAdder ALLOCATED_BYTES = new LongAdder();
+
+	/**
+	 * Measures the allocations per thread, null if the JVM doesn't support it
+	 */
+	private static final com.sun.management.ThreadMXBean THREADS = getThreadBean();
+
+	private VisibilityCounters() {
+	}
+
+	private static com.sun.management.ThreadMXBean getThreadBean() {
+
+		try {
+
+			java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+			if (threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+				return (com.sun.management.ThreadMXBean) threads;
+			}
+
+		} catch (LinkageError e) {
+			// jdk.management isn't available
+		}
+
+		return null;
+	}
+
+	/**
+	 * Count cast rays and how many of them hit a segment
+	 */
+	public static void addRays(int rays, int hits) {
+
+		if (!ENABLED)
+			return;
+
+		RAYS.add(rays);
+		HITS.add(hits);
+	}
+
+	/**
+	 * Count ray-segment intersection tests
+	 */
+	public static void addSegmentTests(int tests) {
+
+		if (!ENABLED)
+			return;
+
+		SEGMENT_TESTS.add(tests);
+	}
+
+	public static void addLevel(long nanos, int segmentCount) {
+
+		if (!ENABLED)
+			return;
+
+		LEVELS.increment();
+		LEVEL_NANOS.add(nanos);
+		lastLevelNanos = nanos;
+
+		levelSegmentCount = segmentCount;
+		sceneSegmentCount = segmentCount;
+	}
+
+	/**
+	 * Number of segments the queries run against, e. g. after the preprocessing
+	 */
+	public static void setSceneSegmentCount(int segmentCount) {
+		sceneSegmentCount = segmentCount;
+	}
+
+	/**
+	 * Count a painted frame and the bytes allocated for it on the calling thread
+	 */
+	public static void addFrame(long allocatedBytes) {
+
+		if (!ENABLED)
+			return;
+
+		FRAMES.increment();
+		ALLOCATED_BYTES.add(Math.max(0, allocatedBytes));
+	}
+
+	/**
+	 * Count bytes allocated for the frames on another thread, e. g. the visibility worker
+	 */
+	public static void addAllocatedBytes(long allocatedBytes) {
+
+		if (!ENABLED)
+			return;
+
+		ALLOCATED_BYTES.add(Math.max(0, allocatedBytes));
+	}
+
+	/**
+	 * Bytes allocated by the calling thread so far, 0 if that isn't supported or the counters are switched off
+	 */
+	public static long getThreadAllocatedBytes() {
+
+		if (!ENABLED || THREADS == null)
+			return 0;
+
+		return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	public static long getRayCount() {
+		return RAYS.sum();
+	}
+
+	public static long getHitCount() {
+		return HITS.sum();
+	}
+
+	public static long getSegmentTestCount() {
+		return SEGMENT_TESTS.sum();
+	}
+
+	public static void reset() {
+
+		RAYS.reset();
+		HITS.reset();
+		SEGMENT_TESTS.reset();
+		LEVELS.reset();
+		LEVEL_NANOS.reset();
+		FRAMES.reset();
+		ALLOCATED_BYTES.reset();
+
+		lastLevelNanos = 0;
+	}
+
+}
@@ -0,0 +1,22 @@
+package LineofSight;
+
+/**
+ * Calculates the area which is visible from a viewer position. An engine is created for a scene and can be queried
+ * for any number of viewer positions.
+ */
+public interface VisibilityEngine {
+
+	/**
+	 * Calculate the visibility polygon of the given viewer and write its vertices into the given buffer.
+	 *
+	 * @param viewerX
+	 * @param viewerY
+	 * @param range
+	 *            maximum view distance, i. e. the scan line length
+	 * @param limited
+	 *            bound the directions without any scene line by the range instead of leaving them out
+	 * @param points
+	 */
+	void getVisibilityPolygon(double viewerX, double viewerY, double range, boolean limited, PolygonBuffer points);
+
+}
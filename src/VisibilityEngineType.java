@@ -0,0 +1,79 @@
+package LineofSight;
+
+/**
+ * Algorithm used for the visibility polygon
+ */
+public enum VisibilityEngineType {
+
+	SCAN_LINES("Scan Lines"),
+	PARALLEL_SCAN_LINES("Parallel Scan Lines"),
+	ADAPTIVE_SCAN_LINES("Adaptive Scan Lines"),
+	ANGULAR_SWEEP("Angular Sweep"),
+	ENDPOINT_RAYS("Endpoint Rays");
+
+	private final String text;
+
+	VisibilityEngineType(String text) {
+		this.text = text;
+	}
+
+	public String toString() {
+		return text;
+	}
+
+	/**
+	 * Create the engine of this type for the given scene.
+	 *
+	 * @param segments
+	 *            scene segments
+	 * @param index
+	 *            index over the scene segments, used by the ray casting engines and for the segments in range of the sweep
+	 * @param directions
+	 *            scan line directions
+	 * @param rayCaster
+	 *            workers of the parallel engine
+	 * @param cellSize
+	 *            cell size of the grid used for finding crossing segments
+	 */
+	public VisibilityEngine createEngine(SegmentStore segments, SegmentIndex index, RayDirections directions, ParallelRayCaster rayCaster, double cellSize) {
+		return createEngine(segments, index, directions, rayCaster, cellSize, AdaptiveScanLineEngine.COARSE_SCAN_LINES);
+	}
+
+	/**
+	 * Create the engine of this type for the given scene.
+	 *
+	 * @param segments
+	 *            scene segments
+	 * @param index
+	 *            index over the scene segments, used by the ray casting engines and for the segments in range of the sweep
+	 * @param directions
+	 *            scan line directions
+	 * @param rayCaster
+	 *            workers of the parallel engine
+	 * @param cellSize
+	 *            cell size of the grid used for finding crossing segments
+	 * @param coarseScanLines
+	 *            scan lines of the initial fan of the adaptive engine
+	 */
+	public VisibilityEngine createEngine(SegmentStore segments, SegmentIndex index, RayDirections directions, ParallelRayCaster rayCaster, double cellSize, int coarseScanLines) {
+
+		switch (this) {
+
+		case PARALLEL_SCAN_LINES:
+			return new ParallelScanLineEngine(rayCaster, index, directions);
+
+		case ADAPTIVE_SCAN_LINES:
+			return new AdaptiveScanLineEngine(index, directions, coarseScanLines);
+
+		case ANGULAR_SWEEP:
+			return new AngularSweep(segments, index, cellSize);
+
+		case ENDPOINT_RAYS:
+			return new EndpointRayEngine(segments, index, cellSize);
+
+		default:
+			return new ScanLineEngine(index, directions);
+
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package LineofSight;
+
+import java.util.Arrays;
+
+/**
+ * Raster mask of the visible area, e. g. for fog of war. The visibility polygon is scan converted directly into an
+ * int array with one pixel per int, there's no path rendering involved. A pixel is covered if its center lies inside
+ * of the polygon.
+ *
+ * The covered pixels get the value given to {@link #fill(PolygonBuffer, int)}, the others are 0. With an ARGB value
+ * the array can be used as image as it is; masks of multiple viewers with the same value can be combined with
+ * {@link #or(VisibilityMask)} and {@link #and(VisibilityMask)}. The arrays are reused, filling a mask again doesn't
+ * allocate anything once the buffers have reached the size of the largest polygon.
+ */
+public class VisibilityMask {
+
+	int width;
+	int height;
+
+	/**
+	 * Pixels row by row, index y * width + x
+	 */
+	int[] pixels;
+
+	/**
+	 * Rows which may contain covered pixels, so that clearing doesn't have to touch the whole mask
+	 */
+	int dirtyFrom;
+	int dirtyTo;
+
+	/**
+	 * Polygon edge crossings per row, in compressed form: the crossings of row i are
+	 * crossings[rowStart[i]] .. crossings[rowStart[i+1]-1]
+	 */
+	int[] rowStart;
+	double[] crossings = new double[256];
+
+	public VisibilityMask(int width, int height) {
+
+		this.width = Math.max(1, width);
+		this.height = Math.max(1, height);
+
+		pixels = new int[this.width * this.height];
+		rowStart = new int[this.height + 1];
+	}
+
+	public void clear() {
+
+		if (dirtyFrom < dirtyTo) {
+			Arrays.fill(pixels, dirtyFrom * width, dirtyTo * width, 0);
+		}
+
+		dirtyFrom = 0;
+		dirtyTo = 0;
+	}
+
+	/**
+	 * Clear the mask and set the pixels inside of the polygon to the given value. The polygon can be concave, the
+	 * even-odd rule decides what's inside.
+	 */
+	public void fill(PolygonBuffer polygon, int value) {
+
+		clear();
+
+		int n = polygon.size();
+
+		if (n < 3)
+			return;
+
+		// first pass: count the crossings per row. An edge crosses the rows whose pixel centers y + 0.5 lie in
+		// [min y, max y) of the edge, so a vertex on a pixel center is counted once.
+		Arrays.fill(rowStart, 0);
+
+		for (int i = 0, j = n - 1; i < n; j = i++) {
+
+			int rowFrom = firstRow(Math.min(polygon.y[i], polygon.y[j]));
+			int rowTo = firstRow(Math.max(polygon.y[i], polygon.y[j]));
+
+			for (int row = rowFrom; row < rowTo; row++) {
+				rowStart[row + 1]++;
+			}
+		}
+
+		// prefix sum => start index per row
+		for (int row = 0; row < height; row++) {
+			rowStart[row + 1] += rowStart[row];
+		}
+
+		if (rowStart[height] > crossings.length) {
+			crossings = new double[Math.max(rowStart[height], crossings.length * 2)];
+		}
+
+		// second pass: x of the crossings; the start index is used as fill counter and restored afterwards
+		for (int i = 0, j = n - 1; i < n; j = i++) {
+
+			double x0 = polygon.x[j];
+			double y0 = polygon.y[j];
+			double x1 = polygon.x[i];
+			double y1 = polygon.y[i];
+
+			if (y0 == y1)
+				continue;
+
+			int rowFrom = firstRow(Math.min(y0, y1));
+			int rowTo = firstRow(Math.max(y0, y1));
+
+			double slope = (x1 - x0) / (y1 - y0);
+
+			for (int row = rowFrom; row < rowTo; row++) {
+				crossings[rowStart[row]++] = x0 + (row + 0.5 - y0) * slope;
+			}
+		}
+
+		for (int row = height; row > 0; row--) {
+			rowStart[row] = rowStart[row - 1];
+		}
+		rowStart[0] = 0;
+
+		dirtyFrom = height;
+		dirtyTo = 0;
+
+		// spans between pairs of crossings
+		for (int row = 0; row < height; row++) {
+
+			int from = rowStart[row];
+			int to = rowStart[row + 1];
+
+			if (from == to)
+				continue;
+
+			sort(crossings, from, to);
+
+			dirtyFrom = Math.min(dirtyFrom, row);
+			dirtyTo = row + 1;
+
+			int offset = row * width;
+
+			for (int i = from; i + 1 < to; i += 2) {
+
+				int start = firstColumn(crossings[i]);
+				int end = firstColumn(crossings[i + 1]);
+
+				if (start < end) {
+					Arrays.fill(pixels, offset + start, offset + end, value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * First row whose pixel center lies at or below the given y, clamped to [0, height]
+	 */
+	private int firstRow(double y) {
+		return (int) Math.max(0, Math.min(height, Math.ceil(y - 0.5)));
+	}
+
+	/**
+	 * First column whose pixel center lies at or right of the given x, clamped to [0, width]
+	 */
+	private int firstColumn(double x) {
+		return (int) Math.max(0, Math.min(width, Math.ceil(x - 0.5)));
+	}
+
+	/**
+	 * Insertion sort, a row has only few crossings
+	 */
+	private static void sort(double[] values, int from, int to) {
+
+		for (int i = from + 1; i < to; i++) {
+
+			double value = values[i];
+
+			int j = i - 1;
+			while (j >= from && values[j] > value) {
+				values[j + 1] = values[j];
+				j--;
+			}
+
+			values[j + 1] = value;
+		}
+	}
+
+	/**
+	 * Union with the other mask of the same size, e. g. the visible area of multiple viewers
+	 */
+	public void or(VisibilityMask other) {
+
+		checkSize(other);
+
+		for (int i = other.dirtyFrom * width; i < other.dirtyTo * width; i++) {
+			pixels[i] |= other.pixels[i];
+		}
+
+		if (other.dirtyFrom < other.dirtyTo) {
+			dirtyFrom = dirtyFrom < dirtyTo ? Math.min(dirtyFrom, other.dirtyFrom) : other.dirtyFrom;
+			dirtyTo = Math.max(dirtyTo, other.dirtyTo);
+		}
+	}
+
+	/**
+	 * Intersection with the other mask of the same size
+	 */
+	public void and(VisibilityMask other) {
+
+		checkSize(other);
+
+		for (int i = dirtyFrom * width; i < dirtyTo * width; i++) {
+			pixels[i] &= other.pixels[i];
+		}
+	}
+
+	private void checkSize(VisibilityMask other) {
+
+		if (other.width != width || other.height != height) {
+			throw new IllegalArgumentException("Mask size " + other.width + "x" + other.height + " doesn't match " + width + "x" + height);
+		}
+	}
+
+	public boolean isVisible(int x, int y) {
+		return pixels[y * width + x] != 0;
+	}
+
+	/**
+	 * Number of covered pixels
+	 */
+	public int getVisibleCount() {
+
+		int count = 0;
+
+		for (int i = dirtyFrom * width; i < dirtyTo * width; i++) {
+			if (pixels[i] != 0) {
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * The pixels row by row, index y * width + x. That's the mask itself, not a copy. Changes have to be made with
+	 * {@link #fill(PolygonBuffer, int)}, {@link #or(VisibilityMask)} and {@link #and(VisibilityMask)}, clearing the
+	 * mask only resets the rows which these have set.
+	 */
+	public int[] getPixels() {
+		return pixels;
+	}
+
+}
@@ -0,0 +1,188 @@
+package LineofSight;
+
+import java.lang.management.ManagementFactory;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * MBean which exposes the {@link VisibilityCounters} to JMX tools like JConsole or VisualVM. The rates are sampled
+ * once per second on a timer thread, so reading the attributes doesn't depend on how often a tool polls them.
+ */
+public class VisibilityStats implements VisibilityStatsMBean {
+
+	public static final String OBJECT_NAME = "LineofSight:type=VisibilityStats";
+
+	private static final long SAMPLE_MILLIS = 1000;
+
+	private static VisibilityStats instance;
+
+	private final Timer timer = new Timer("Visibility Stats", true);
+
+	// counters at the previous sample
+	private long sampleNanos;
+	private long sampleRays;
+	private long sampleTests;
+	private long sampleHits;
+	private long sampleFrames;
+	private long sampleBytes;
+
+	// rates of the last interval
+	private volatile double raysPerSecond;
+	private volatile double segmentTestsPerSecond;
+	private volatile double hitsPerSecond;
+	private volatile double candidatesPerRay;
+	private volatile double bytesPerFrame;
+
+	private VisibilityStats() {
+
+		sample();
+
+		timer.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				sample();
+			}
+		}, SAMPLE_MILLIS, SAMPLE_MILLIS);
+	}
+
+	/**
+	 * Register the MBean with the platform MBean server, once per JVM
+	 */
+	public static synchronized VisibilityStats register() throws JMException {
+
+		if (instance == null) {
+
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+			VisibilityStats stats = new VisibilityStats();
+
+			server.registerMBean(stats, new ObjectName(OBJECT_NAME));
+
+			instance = stats;
+		}
+
+		return instance;
+	}
+
+	private synchronized void sample() {
+
+		long now = System.nanoTime();
+
+		long rays = VisibilityCounters.RAYS.sum();
+		long tests = VisibilityCounters.SEGMENT_TESTS.sum();
+		long hits = VisibilityCounters.HITS.sum();
+		long frames = VisibilityCounters.FRAMES.sum();
+		long bytes = VisibilityCounters.ALLOCATED_BYTES.sum();
+
+		if (sampleNanos != 0) {
+
+			double seconds = (now - sampleNanos) / 1_000_000_000.0;
+
+			// a reset in between makes the differences negative, the next interval is right again
+			long deltaRays = Math.max(0, rays - sampleRays);
+			long deltaTests = Math.max(0, tests - sampleTests);
+			long deltaFrames = Math.max(0, frames - sampleFrames);
+
+			raysPerSecond = deltaRays / seconds;
+			segmentTestsPerSecond = deltaTests / seconds;
+			hitsPerSecond = Math.max(0, hits - sampleHits) / seconds;
+			candidatesPerRay = deltaRays == 0 ? 0 : (double) deltaTests / deltaRays;
+			bytesPerFrame = deltaFrames == 0 ? 0 : (double) Math.max(0, bytes - sampleBytes) / deltaFrames;
+		}
+
+		sampleNanos = now;
+		sampleRays = rays;
+		sampleTests = tests;
+		sampleHits = hits;
+		sampleFrames = frames;
+		sampleBytes = bytes;
+	}
+
+	@Override
+	public double getRaysPerSecond() {
+		return raysPerSecond;
+	}
+
+	@Override
+	public double getSegmentTestsPerSecond() {
+		return segmentTestsPerSecond;
+	}
+
+	@Override
+	public double getHitsPerSecond() {
+		return hitsPerSecond;
+	}
+
+	@Override
+	public double getAverageCandidatesPerRay() {
+		return candidatesPerRay;
+	}
+
+	@Override
+	public long getRayCount() {
+		return VisibilityCounters.RAYS.sum();
+	}
+
+	@Override
+	public long getSegmentTestCount() {
+		return VisibilityCounters.SEGMENT_TESTS.sum();
+	}
+
+	@Override
+	public long getHitCount() {
+		return VisibilityCounters.HITS.sum();
+	}
+
+	@Override
+	public int getLevelSegmentCount() {
+		return VisibilityCounters.levelSegmentCount;
+	}
+
+	@Override
+	public int getSceneSegmentCount() {
+		return VisibilityCounters.sceneSegmentCount;
+	}
+
+	@Override
+	public long getLevelCount() {
+		return VisibilityCounters.LEVELS.sum();
+	}
+
+	@Override
+	public double getLastLevelMillis() {
+		return VisibilityCounters.lastLevelNanos / 1_000_000.0;
+	}
+
+	@Override
+	public double getAverageLevelMillis() {
+
+		long levels = VisibilityCounters.LEVELS.sum();
+
+		return levels == 0 ? 0 : VisibilityCounters.LEVEL_NANOS.sum() / 1_000_000.0 / levels;
+	}
+
+	@Override
+	public long getFrameCount() {
+		return VisibilityCounters.FRAMES.sum();
+	}
+
+	@Override
+	public double getAllocatedBytesPerFrame() {
+		return bytesPerFrame;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return VisibilityCounters.ENABLED;
+	}
+
+	@Override
+	public void resetCounters() {
+		VisibilityCounters.reset();
+	}
+
+}
@@ -0,0 +1,52 @@
+package LineofSight;
+
+/**
+ * Management interface of {@link VisibilityStats}. The rates refer to the last sampling interval of one second.
+ */
+public interface VisibilityStatsMBean {
+
+	double getRaysPerSecond();
+
+	double getSegmentTestsPerSecond();
+
+	double getHitsPerSecond();
+
+	/**
+	 * Segment tests per ray in the last interval, i. e. how well the index narrows down the candidates
+	 */
+	double getAverageCandidatesPerRay();
+
+	long getRayCount();
+
+	long getSegmentTestCount();
+
+	long getHitCount();
+
+	/**
+	 * Segments of the last generated level, before the scene preprocessing
+	 */
+	int getLevelSegmentCount();
+
+	/**
+	 * Segments the queries run against, after the scene preprocessing if it's enabled
+	 */
+	int getSceneSegmentCount();
+
+	long getLevelCount();
+
+	double getLastLevelMillis();
+
+	double getAverageLevelMillis();
+
+	long getFrameCount();
+
+	/**
+	 * Bytes allocated per painted frame in the last interval, on the application thread and the visibility worker
+	 */
+	double getAllocatedBytesPerFrame();
+
+	boolean isEnabled();
+
+	void resetCounters();
+
+}
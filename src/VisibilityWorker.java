@@ -0,0 +1,236 @@
+package LineofSight;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Calculates the visibility polygon on a dedicated thread, so that a slow query doesn't block the JavaFX application
+ * thread. The render pulse posts the latest viewer position and engine with {@link #request}; the worker always
+ * calculates the most recent request, intermediate ones are skipped. A request whose calculation fails is tried again
+ * after a short pause until it succeeds or a new request replaces it.
+ *
+ * The results are passed back through a triple buffer: the worker writes into its back buffer and swaps it with the
+ * middle one, the renderer swaps the middle one with its front buffer if it holds a new result. Neither side ever
+ * waits for the other, and the front buffer stays untouched by the worker until the renderer swaps it away.
+ *
+ * The engines aren't thread safe, so after handing an engine to the worker it mustn't be queried on another thread.
+ * Settings changes create a new engine, which the worker picks up with the next request.
+ */
+public class VisibilityWorker {
+
+	/**
+	 * Pause before a failed calculation is tried again, unless a new request replaces it
+	 */
+	static final long RETRY_NANOS = 100_000_000;
+
+	/**
+	 * Parameters of a calculation. Immutable, a new request replaces the previous one as a whole.
+	 */
+	private static class Request {
+
+		VisibilityEngine engine;
+		long sceneVersion;
+		double viewerX;
+		double viewerY;
+		double range;
+		boolean limited;
+
+		boolean matches(VisibilityEngine engine, long sceneVersion, double viewerX, double viewerY, double range, boolean limited) {
+			return engine == this.engine && sceneVersion == this.sceneVersion && viewerX == this.viewerX && viewerY == this.viewerY && range == this.range && limited == this.limited;
+		}
+	}
+
+	/**
+	 * A calculated polygon and the viewer it belongs to
+	 */
+	public static class Result {
+
+		PolygonBuffer points = new PolygonBuffer();
+
+		double viewerX;
+		double viewerY;
+
+		/**
+		 * Duration of the calculation
+		 */
+		long nanos;
+
+		/**
+		 * Set by the worker, reset when the renderer takes the result
+		 */
+		boolean fresh;
+
+		public PolygonBuffer getPoints() {
+			return points;
+		}
+
+		public double getViewerX() {
+			return viewerX;
+		}
+
+		public double getViewerY() {
+			return viewerY;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+	}
+
+	/**
+	 * Latest request, only written by the render thread
+	 */
+	private final AtomicReference<Request> request = new AtomicReference<>();
+
+	// triple buffer: back is owned by the worker, front by the renderer, middle is exchanged
+	private Result back = new Result();
+	private final AtomicReference<Result> middle = new AtomicReference<>(new Result());
+	private Result front = new Result();
+
+	private final Thread thread;
+
+	private volatile boolean running = true;
+
+	// statistics
+	private volatile long calculationCount = 0;
+
+	public VisibilityWorker() {
+
+		thread = new Thread(this::run, "Visibility Worker");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Post the parameters of the polygon which should be shown. Doesn't do anything if they didn't change since the
+	 * previous request.
+	 *
+	 * @return true if a new calculation was requested
+	 */
+	public boolean request(VisibilityEngine engine, long sceneVersion, double viewerX, double viewerY, double range, boolean limited) {
+
+		Request current = request.get();
+
+		if (current != null && current.matches(engine, sceneVersion, viewerX, viewerY, range, limited))
+			return false;
+
+		Request next = new Request();
+		next.engine = engine;
+		next.sceneVersion = sceneVersion;
+		next.viewerX = viewerX;
+		next.viewerY = viewerY;
+		next.range = range;
+		next.limited = limited;
+
+		request.set(next);
+
+		LockSupport.unpark(thread);
+
+		return true;
+	}
+
+	/**
+	 * Take over the latest result if there's a new one. Doesn't block.
+	 *
+	 * @return true if the front result changed
+	 */
+	public boolean update() {
+
+		// only the worker can replace the middle buffer, and only with a fresh one
+		if (!middle.get().fresh)
+			return false;
+
+		front.fresh = false;
+		front = middle.getAndSet(front);
+
+		return true;
+	}
+
+	/**
+	 * The most recent result taken over by {@link #update()}. It stays valid until the next update.
+	 */
+	public Result getResult() {
+		return front;
+	}
+
+	private void run() {
+
+		Request calculated = null;
+
+		// the request whose calculation failed last and when to try it again
+		Request failed = null;
+		long retryTime = 0;
+
+		while (running) {
+
+			Request next = request.get();
+
+			if (next == null || next == calculated) {
+
+				// an unpark between the check and here lets park return immediately, so no request gets lost
+				LockSupport.park(this);
+				continue;
+			}
+
+			if (next == failed) {
+
+				long delay = retryTime - System.nanoTime();
+
+				// a new request ends the pause early
+				if (delay > 0) {
+					LockSupport.parkNanos(this, delay);
+					continue;
+				}
+			}
+
+			try {
+
+				long start = System.nanoTime();
+				long allocated = VisibilityCounters.getThreadAllocatedBytes();
+
+				next.engine.getVisibilityPolygon(next.viewerX, next.viewerY, next.range, next.limited, back.points);
+
+				back.nanos = System.nanoTime() - start;
+
+				VisibilityCounters.addAllocatedBytes(VisibilityCounters.getThreadAllocatedBytes() - allocated);
+
+				back.viewerX = next.viewerX;
+				back.viewerY = next.viewerY;
+				back.fresh = true;
+
+				back = middle.getAndSet(back);
+
+				calculationCount++;
+
+				calculated = next;
+
+			} catch (RuntimeException e) {
+
+				// keep the worker alive and try again later, e. g. the settings replaced the engine or its pool during
+				// the calculation; a request which keeps failing is only reported once
+				if (next != failed) {
+					e.printStackTrace();
+				}
+
+				failed = next;
+				retryTime = System.nanoTime() + RETRY_NANOS;
+			}
+		}
+	}
+
+	/**
+	 * Number of polygons calculated by the worker
+	 */
+	public long getCalculationCount() {
+		return calculationCount;
+	}
+
+	/**
+	 * Stop the worker. A running calculation is finished first, its result is dropped.
+	 */
+	public void shutdown() {
+		running = false;
+		LockSupport.unpark(thread);
+	}
+
+}